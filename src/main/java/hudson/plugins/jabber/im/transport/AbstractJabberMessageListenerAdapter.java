@@ -24,7 +24,6 @@ package hudson.plugins.jabber.im.transport;
 
 import hudson.plugins.im.IMMessage;
 import hudson.plugins.im.IMMessageListener;
-import org.jivesoftware.smack.packet.ExtensionElement;
 import org.jivesoftware.smack.packet.Message;
 import org.jivesoftware.smackx.delay.packet.DelayInformation;
 
@@ -41,10 +40,8 @@ class AbstractJabberMessageListenerAdapter {
 	protected void processMessage(Message msg) {
 		// Don't react to old messages.
 		// Especially useful for chat rooms where all old messages are replayed, when you connect to them
-		for (ExtensionElement pe : msg.getExtensions()) {
-			if (pe instanceof DelayInformation) {
-				return; // simply bail out here, it's an old message
-			}
+		if (msg.hasExtension(DelayInformation.ELEMENT, DelayInformation.NAMESPACE)) {
+			return; // simply bail out here, it's an old message
 		}
 
 		IMMessage imMessage = new IMMessage(msg.getFrom().toString(), msg.getTo().toString(), msg.getBody(),
@@ -0,0 +1,223 @@
+/**
+ * Copyright (c) 2026 the original author or authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE
+ */
+package hudson.plugins.jabber.im.transport;
+
+import java.util.Locale;
+import java.util.logging.Logger;
+
+import hudson.plugins.im.AuthenticationHolder;
+import hudson.plugins.im.IMChat;
+import hudson.plugins.im.IMException;
+import hudson.plugins.im.IMMessage;
+import hudson.plugins.im.IMMessageListener;
+import hudson.plugins.im.bot.Bot;
+import hudson.plugins.im.tools.ExceptionHelper;
+
+/**
+ * Passes the bot commands of all chats of a connection to the {@link JabberCommandExecutor}.
+ * <p>
+ * Each chat gets a small conversation context from {@link #listenerFor(IMChat)}. The context decides whether a
+ * message is a command for the bot at all - checking {@link IMChat#isCommandsAccepted()} and
+ * {@link IMChat#isMultiUserChat()} of its own chat - and only creates its {@link Bot} once the first command
+ * arrives, so chats which never send a command cost next to nothing. {@link Bot} isn't thread-safe (e.g. the
+ * {@code alias} command changes its command table), so the commands of one conversation run one at a time.
+ */
+final class JabberBotDispatcher {
+
+	private static final Logger LOGGER = Logger.getLogger(JabberBotDispatcher.class.getName());
+
+	/**
+	 * Creates the bot of a conversation.
+	 */
+	interface BotFactory {
+		IMMessageListener createBot(IMChat chat, String commandPrefix);
+	}
+
+	private final String nick;
+	private final JabberCommandExecutor executor;
+	private final BotFactory botFactory;
+	private volatile String commandPrefix;
+
+	JabberBotDispatcher(final String nick, final String host, String commandPrefix,
+			final AuthenticationHolder authentication, JabberCommandExecutor executor) {
+		this(nick, commandPrefix, executor, new BotFactory() {
+			@Override
+			public IMMessageListener createBot(IMChat chat, String prefix) {
+				return new Bot(chat, nick, host, prefix, authentication);
+			}
+		});
+	}
+
+	JabberBotDispatcher(String nick, String commandPrefix, JabberCommandExecutor executor, BotFactory botFactory) {
+		this.nick = nick;
+		this.commandPrefix = commandPrefix;
+		this.executor = executor;
+		this.botFactory = botFactory;
+	}
+
+	/**
+	 * Returns the listener which queues the commands of the given chat for its bot.
+	 */
+	IMMessageListener listenerFor(IMChat chat) {
+		return new Conversation(chat);
+	}
+
+	/**
+	 * Changes the command prefix. Existing bots keep their aliases: commands with the new prefix are translated to
+	 * the prefix the bot was created with.
+	 */
+	void setCommandPrefix(String commandPrefix) {
+		this.commandPrefix = commandPrefix;
+	}
+
+	private boolean isCommand(String body, String prefix) {
+		return body != null && (body.startsWith(prefix) || body.startsWith(this.nick + ":"));
+	}
+
+	/**
+	 * Returns the lower-case name of the command in the message, e.g. {@code status} for {@code !status job}, or null
+	 * if the message has no recognizable command.
+	 */
+	private String commandOf(String body, String prefix) {
+		if (body == null) {
+			return null;
+		}
+		String line = body.trim();
+		if (line.startsWith(prefix)) {
+			line = line.substring(prefix.length());
+		} else if (line.startsWith(this.nick + ":")) {
+			line = line.substring(this.nick.length() + 1);
+		}
+		line = line.trim();
+		int end = 0;
+		while (end < line.length() && !Character.isWhitespace(line.charAt(end))) {
+			end++;
+		}
+		return end > 0 ? line.substring(0, end).toLowerCase(Locale.ENGLISH) : null;
+	}
+
+	/**
+	 * The context of one chat. It is the {@link IMChat} of its bot and delegates everything to the real chat, except
+	 * for the listener registration: the bot is called by {@link #dispatch(IMMessage, String)}, not by the chat.
+	 */
+	private final class Conversation implements IMChat, IMMessageListener {
+
+		private final IMChat chat;
+
+		/**
+		 * Created with the first command. Guarded by this conversation.
+		 */
+		private IMMessageListener bot;
+		private String botPrefix;
+
+		Conversation(IMChat chat) {
+			this.chat = chat;
+		}
+
+		@Override
+		public void onMessage(final IMMessage message) {
+			if (!this.chat.isCommandsAccepted()) {
+				JabberMetrics.increment("bot.ignored.commandsdisabled");
+				return;
+			}
+			// the prefix may change while the command is queued
+			final String prefix = commandPrefix;
+			if (this.chat.isMultiUserChat() && !isCommand(message.getBody(), prefix)) {
+				JabberMetrics.increment("bot.ignored.notcommand");
+				return;
+			}
+			boolean queued = executor.submit(String.valueOf(message.getFrom()), commandOf(message.getBody(), prefix),
+					new Runnable() {
+						@Override
+						public void run() {
+							dispatch(message, prefix);
+						}
+					});
+			if (!queued) {
+				try {
+					this.chat.sendMessage("Too many commands are waiting. Please try again later.");
+				} catch (IMException e) {
+					LOGGER.warning(ExceptionHelper.dump(e));
+				}
+			}
+		}
+
+		/**
+		 * @param prefix the command prefix at the time the message was received
+		 */
+		synchronized void dispatch(IMMessage message, String prefix) {
+			if (this.bot == null) {
+				this.botPrefix = prefix;
+				this.bot = botFactory.createBot(this, this.botPrefix);
+				JabberMetrics.increment("bot.created");
+			}
+			this.bot.onMessage(translate(message, prefix));
+			JabberMetrics.increment("bot.dispatched");
+		}
+
+		/**
+		 * Rewrites a command with a changed prefix to the prefix of the bot.
+		 */
+		private IMMessage translate(IMMessage message, String prefix) {
+			String body = message.getBody();
+			if (prefix.equals(this.botPrefix) || body == null || !body.startsWith(prefix)) {
+				return message;
+			}
+			return new IMMessage(message.getFrom(), message.getTo(), this.botPrefix + body.substring(prefix.length()),
+					message.isAuthorized());
+		}
+
+		@Override
+		public void sendMessage(String message) throws IMException {
+			this.chat.sendMessage(message);
+		}
+
+		@Override
+		public String getNickName(String sender) {
+			return this.chat.getNickName(sender);
+		}
+
+		@Override
+		public String getIMId(String senderId) {
+			return this.chat.getIMId(senderId);
+		}
+
+		@Override
+		public void addMessageListener(IMMessageListener listener) {
+		}
+
+		@Override
+		public void removeMessageListener(IMMessageListener listener) {
+		}
+
+		@Override
+		public boolean isMultiUserChat() {
+			return this.chat.isMultiUserChat();
+		}
+
+		@Override
+		public boolean isCommandsAccepted() {
+			return this.chat.isCommandsAccepted();
+		}
+	}
+}
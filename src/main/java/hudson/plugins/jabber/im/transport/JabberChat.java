@@ -22,11 +22,15 @@
  */
 package hudson.plugins.jabber.im.transport;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import hudson.plugins.im.IMChat;
 import hudson.plugins.im.IMException;
 import hudson.plugins.im.IMMessageListener;
 import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.chat.Chat;
+import org.jivesoftware.smack.packet.Message;
 import org.jxmpp.util.XmppStringUtils;
 
 /**
@@ -37,6 +41,7 @@ import org.jxmpp.util.XmppStringUtils;
 public class JabberChat implements IMChat {
 	private final Chat chat;
 	private final JabberIMConnection connection;
+	private final Map<IMMessageListener, JabberMessageListenerAdapter> listeners = new ConcurrentHashMap<>();
 
 	public JabberChat(Chat chat, JabberIMConnection connection) {
 		this.chat = chat;
@@ -61,13 +66,25 @@ public class JabberChat implements IMChat {
 		return XmppStringUtils.parseLocalpart(senderId) + '@' + XmppStringUtils.parseDomain(senderId);
 	}
 
+	/**
+	 * Adds a listener for the messages of this chat. The listener isn't registered on the Smack chat: the connection
+	 * filters all private messages and routes the remaining ones to {@link #processMessage(Message)}.
+	 */
 	public void addMessageListener(IMMessageListener listener) {
-		this.chat.addMessageListener(new JabberMessageListenerAdapter(listener, this.connection, this.chat));
+		this.listeners.put(listener, new JabberMessageListenerAdapter(listener, this.connection, this.chat));
 	}
 
 	public void removeMessageListener(IMMessageListener listener) {
-		// doesn't work out-of the box with Smack
-		// We would need to access the underlying connection to remove the packetListener
+		this.listeners.remove(listener);
+	}
+
+	/**
+	 * Passes a message of this chat, which has already passed the {@link JabberInboundFilter}, to all listeners.
+	 */
+	void processMessage(Message message) {
+		for (JabberMessageListenerAdapter adapter : this.listeners.values()) {
+			adapter.processMessage(message);
+		}
 	}
 
 	public boolean isMultiUserChat() {
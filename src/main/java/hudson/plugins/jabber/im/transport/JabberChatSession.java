@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 2026 the original author or authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE
+ */
+package hudson.plugins.jabber.im.transport;
+
+import hudson.plugins.im.IMChat;
+import hudson.plugins.im.IMMessageListener;
+
+/**
+ * A Smack chat together with its conversation context from the {@link JabberBotDispatcher}, which holds the bot of
+ * the chat.
+ * <p>
+ * The listener is registered exactly as long as the session is cached: when the session is evicted or replaced,
+ * {@link #release()} detaches it from the chat, so neither stays reachable.
+ *
+ * @param <C> the type of the Smack chat
+ */
+final class JabberChatSession<C> {
+
+	private final C chat;
+	private final IMChat imChat;
+	private IMMessageListener listener;
+
+	JabberChatSession(C chat, IMChat imChat) {
+		this.chat = chat;
+		this.imChat = imChat;
+	}
+
+	C getChat() {
+		return this.chat;
+	}
+
+	IMChat getIMChat() {
+		return this.imChat;
+	}
+
+	/**
+	 * Starts passing the messages of this chat to the dispatcher.
+	 *
+	 * @return the listener, which can also be used to dispatch a message which was received before
+	 */
+	synchronized IMMessageListener attach(JabberBotDispatcher dispatcher) {
+		release();
+		this.listener = dispatcher.listenerFor(this.imChat);
+		this.imChat.addMessageListener(this.listener);
+		JabberMetrics.increment("conversations.opened");
+		return this.listener;
+	}
+
+	/**
+	 * Returns the listener which passes the messages of this chat to the dispatcher, or null if the session has been
+	 * released.
+	 */
+	synchronized IMMessageListener getListener() {
+		return this.listener;
+	}
+
+	synchronized void release() {
+		if (this.listener != null) {
+			this.imChat.removeMessageListener(this.listener);
+			this.listener = null;
+			JabberMetrics.increment("conversations.closed");
+		}
+	}
+}
@@ -0,0 +1,260 @@
+/**
+ * Copyright (c) 2026 the original author or authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE
+ */
+package hudson.plugins.jabber.im.transport;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import hudson.plugins.im.tools.ExceptionHelper;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+/**
+ * Runs bot commands off the Smack stanza listener threads, so a slow command doesn't hold up inbound stanzas.
+ * <p>
+ * At most {@link #THREADS} commands run at the same time. The commands of each user run one after another in the
+ * order in which they were received, while the users with pending commands take turns - so a user who sends many
+ * commands can't starve the others. At most {@link #QUEUE_LIMIT} commands wait; further ones are rejected. On Java 21
+ * and later the commands run on virtual threads.
+ * <p>
+ * For each command, {@code command.<name>.count}, {@code command.<name>.queue.millis} and
+ * {@code command.<name>.execution.millis} are counted in {@link JabberMetrics}.
+ */
+final class JabberCommandExecutor {
+
+	private static final Logger LOGGER = Logger.getLogger(JabberCommandExecutor.class.getName());
+
+	static final int THREADS = Integer.getInteger(JabberCommandExecutor.class.getName() + ".threads", 4);
+
+	static final int QUEUE_LIMIT = Integer.getInteger(JabberCommandExecutor.class.getName() + ".queueLimit", 100);
+
+	private static final boolean VIRTUAL_THREADS = Boolean
+			.parseBoolean(System.getProperty(JabberCommandExecutor.class.getName() + ".virtualThreads", "true"));
+
+	/**
+	 * Commands with other names are counted as {@code other}, so arbitrary input can't create arbitrary metrics.
+	 */
+	private static final int MAX_COMMAND_NAMES = 50;
+
+	private static final Set<String> COMMAND_NAMES = new HashSet<>();
+
+	private final int threads;
+	private final int queueLimit;
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * Pending commands by user. Guarded by itself, like all of the following fields.
+	 */
+	private final Map<String, Deque<Command>> queues = new HashMap<>();
+
+	/**
+	 * Users with pending commands and none running, in the order in which they get their turn.
+	 */
+	private final Deque<String> ready = new ArrayDeque<>();
+
+	/**
+	 * Users with a running command.
+	 */
+	private final Set<String> running = new HashSet<>();
+
+	private int queued;
+	private int activeWorkers;
+
+	private final Runnable worker = new Runnable() {
+		@Override
+		public void run() {
+			work();
+		}
+	};
+
+	JabberCommandExecutor() {
+		this(THREADS, QUEUE_LIMIT);
+	}
+
+	JabberCommandExecutor(int threads, int queueLimit) {
+		this.threads = Math.max(1, threads);
+		this.queueLimit = Math.max(1, queueLimit);
+		this.executor = new ThreadPoolExecutor(this.threads, this.threads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), newThreadFactory());
+		this.executor.allowCoreThreadTimeOut(true);
+		JabberMetrics.gauge("command.queue.depth", new JabberMetrics.Gauge() {
+			@Override
+			public long getValue() {
+				return getQueued();
+			}
+		});
+	}
+
+	/**
+	 * Queues a command.
+	 *
+	 * @param user the user who sent the command. Commands of the same user run one after another.
+	 * @param name the name of the command, for the metrics
+	 * @return false if the command was rejected because too many commands are waiting
+	 */
+	boolean submit(String user, String name, Runnable task) {
+		synchronized (this.queues) {
+			if (this.executor.isShutdown()) {
+				return false;
+			}
+			if (this.queued >= this.queueLimit) {
+				JabberMetrics.increment("command.rejected");
+				return false;
+			}
+			Deque<Command> queue = this.queues.get(user);
+			if (queue == null) {
+				queue = new ArrayDeque<>();
+				this.queues.put(user, queue);
+			}
+			if (queue.isEmpty() && !this.running.contains(user)) {
+				this.ready.add(user);
+			}
+			queue.add(new Command(metricsName(name), task));
+			this.queued++;
+			if (this.activeWorkers < this.threads) {
+				this.activeWorkers++;
+				this.executor.execute(this.worker);
+			}
+		}
+		return true;
+	}
+
+	int getQueued() {
+		synchronized (this.queues) {
+			return this.queued;
+		}
+	}
+
+	/**
+	 * Discards all pending commands and interrupts the running ones.
+	 */
+	void shutdown() {
+		synchronized (this.queues) {
+			this.queues.clear();
+			this.ready.clear();
+			this.queued = 0;
+			// under the lock, so submit() either sees the shutdown or executes its worker before it
+			this.executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Runs commands until no user with pending commands is left.
+	 */
+	private void work() {
+		while (true) {
+			String user;
+			Command command;
+			synchronized (this.queues) {
+				user = this.ready.poll();
+				if (user == null) {
+					this.activeWorkers--;
+					return;
+				}
+				command = this.queues.get(user).poll();
+				this.queued--;
+				this.running.add(user);
+			}
+
+			long start = System.nanoTime();
+			JabberMetrics.increment("command." + command.name + ".count");
+			JabberMetrics.counter("command." + command.name + ".queue.millis")
+					.addAndGet(TimeUnit.NANOSECONDS.toMillis(start - command.queuedAt));
+			try {
+				command.task.run();
+			} catch (RuntimeException e) {
+				LOGGER.warning(ExceptionHelper.dump(e));
+			} finally {
+				JabberMetrics.counter("command." + command.name + ".execution.millis")
+						.addAndGet(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+				synchronized (this.queues) {
+					this.running.remove(user);
+					Deque<Command> queue = this.queues.get(user);
+					if (queue == null) {
+						// shut down in the meantime
+					} else if (queue.isEmpty()) {
+						this.queues.remove(user);
+					} else {
+						// back of the line, so the other users get their turn first
+						this.ready.add(user);
+					}
+				}
+			}
+		}
+	}
+
+	private static String metricsName(String name) {
+		if (name == null || !name.matches("[a-z0-9]{1,20}")) {
+			return "other";
+		}
+		synchronized (COMMAND_NAMES) {
+			if (COMMAND_NAMES.contains(name) || COMMAND_NAMES.size() < MAX_COMMAND_NAMES && COMMAND_NAMES.add(name)) {
+				return name;
+			}
+		}
+		return "other";
+	}
+
+	/**
+	 * Returns a factory for virtual threads if running on Java 21 or later, otherwise for daemon threads. Virtual
+	 * threads are looked up reflectively, as the plugin is still compiled for older Java versions.
+	 */
+	private static ThreadFactory newThreadFactory() {
+		String name = JabberCommandExecutor.class.getSimpleName();
+		if (VIRTUAL_THREADS) {
+			try {
+				Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+				Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+				builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+				return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+			} catch (NoSuchMethodException | ClassNotFoundException e) {
+				// Java < 19
+			} catch (IllegalAccessException | InvocationTargetException e) {
+				// e.g. a preview feature on Java 19 and 20
+				LOGGER.fine("Virtual threads not available: " + e);
+			}
+		}
+		return new NamingThreadFactory(new DaemonThreadFactory(), name);
+	}
+
+	private static final class Command {
+		private final String name;
+		private final Runnable task;
+		private final long queuedAt = System.nanoTime();
+
+		Command(String name, Runnable task) {
+			this.name = name;
+			this.task = task;
+		}
+	}
+}
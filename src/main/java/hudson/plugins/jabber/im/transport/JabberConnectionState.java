@@ -0,0 +1,48 @@
+/**
+ * Copyright (c) 2026 the original author or authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE
+ */
+package hudson.plugins.jabber.im.transport;
+
+/**
+ * Lifecycle states of a {@link JabberIMConnection}.
+ */
+enum JabberConnectionState {
+	/** Not connected. Initial and final state. */
+	DISCONNECTED,
+	/** Establishing the XMPP connection or resuming the stream. */
+	CONNECTING,
+	/** Logged in, but the group chats haven't been joined yet. */
+	AUTHENTICATED,
+	/** The configured group chats are being joined. Messages can already be sent. */
+	JOINING,
+	/** Connected and all configured group chats have been joined (or failed to join). */
+	READY,
+	/** The connection is being closed. */
+	CLOSING;
+
+	/**
+	 * Returns true if messages can be sent in this state.
+	 */
+	boolean isConnected() {
+		return this == AUTHENTICATED || this == JOINING || this == READY;
+	}
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2026 the original author or authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE
+ */
+package hudson.plugins.jabber.im.transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Collections;
+
+import javax.net.SocketFactory;
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * Creates TLS sockets for direct TLS (XEP-0368), indicating the XMPP domain via SNI.
+ * <p>
+ * Smack creates unconnected sockets and connects them itself, so the host name the socket is connected to isn't
+ * known when the socket is created and the JDK wouldn't send any SNI at all. As the server picks its certificate
+ * based on the XMPP domain - not the SRV target - the domain is set explicitly.
+ * <p>
+ * Smack only runs its {@link javax.net.ssl.HostnameVerifier} after STARTTLS, so for direct TLS the JDK has to check
+ * that the certificate matches the XMPP domain: endpoint identification is enabled, and it checks against the SNI
+ * host name.
+ */
+final class JabberDirectTlsSocketFactory extends SocketFactory {
+
+	private final SocketFactory delegate;
+	private final String xmppDomain;
+	private final boolean verifyHostname;
+
+	/**
+	 * @param verifyHostname whether the certificate must match the XMPP domain. Only false if all certificates are
+	 *            accepted anyway.
+	 */
+	JabberDirectTlsSocketFactory(SSLContext sslContext, String xmppDomain, boolean verifyHostname) {
+		this.delegate = sslContext.getSocketFactory();
+		this.xmppDomain = xmppDomain;
+		this.verifyHostname = verifyHostname;
+	}
+
+	@Override
+	public Socket createSocket() throws IOException {
+		return configure(this.delegate.createSocket());
+	}
+
+	@Override
+	public Socket createSocket(String host, int port) throws IOException {
+		return configure(this.delegate.createSocket(host, port));
+	}
+
+	@Override
+	public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+		return configure(this.delegate.createSocket(host, port, localHost, localPort));
+	}
+
+	@Override
+	public Socket createSocket(InetAddress host, int port) throws IOException {
+		return configure(this.delegate.createSocket(host, port));
+	}
+
+	@Override
+	public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+			throws IOException {
+		return configure(this.delegate.createSocket(address, port, localAddress, localPort));
+	}
+
+	private Socket configure(Socket socket) {
+		if (socket instanceof SSLSocket) {
+			SSLSocket sslSocket = (SSLSocket) socket;
+			SSLParameters parameters = sslSocket.getSSLParameters();
+			parameters.setServerNames(Collections.singletonList(new SNIHostName(this.xmppDomain)));
+			if (this.verifyHostname) {
+				parameters.setEndpointIdentificationAlgorithm("HTTPS");
+			}
+			sslSocket.setSSLParameters(parameters);
+		}
+		return socket;
+	}
+}
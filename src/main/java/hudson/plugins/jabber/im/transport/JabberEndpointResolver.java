@@ -0,0 +1,338 @@
+/**
+ * Copyright (c) 2026 the original author or authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE
+ */
+package hudson.plugins.jabber.im.transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.naming.NamingException;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+/**
+ * Resolves the endpoints of an XMPP service and picks the one to connect to.
+ * <p>
+ * SRV and address lookups are cached for {@link #TTL_MILLIS}. JNDI doesn't expose the TTL of the records, so a fixed
+ * TTL is used. If a lookup fails, e.g. during a DNS hiccup, the last known result is used even if it has expired.
+ * <p>
+ * The candidates are raced in the style of Happy Eyeballs (RFC 8305): a TCP connection attempt is started to the
+ * first candidate, and if it hasn't succeeded after {@link #RACE_DELAY_MILLIS}, or as soon as it failed, the next
+ * candidate is tried in parallel. The first candidate to accept the connection wins. The candidate which last
+ * succeeded is tried first and candidates which failed are demoted.
+ * <p>
+ * The race only probes the candidates: the winning socket is closed and Smack connects to the winner again, which
+ * costs one extra TCP handshake. Smack connects the sockets of its socket factory itself, so it can't be handed a
+ * connected one.
+ */
+final class JabberEndpointResolver {
+
+	private static final Logger LOGGER = Logger.getLogger(JabberEndpointResolver.class.getName());
+
+	static final long TTL_MILLIS = TimeUnit.SECONDS
+			.toMillis(Long.getLong(JabberEndpointResolver.class.getName() + ".ttlSeconds", 5 * 60));
+
+	static final long RACE_DELAY_MILLIS = Long.getLong(JabberEndpointResolver.class.getName() + ".raceDelayMillis",
+			250);
+
+	static final int CONNECT_TIMEOUT_MILLIS = Integer
+			.getInteger(JabberEndpointResolver.class.getName() + ".connectTimeoutMillis", 5000);
+
+	/**
+	 * SRV prefix for XMPP clients using STARTTLS.
+	 */
+	static final String XMPP_CLIENT = "_xmpp-client._tcp.";
+
+	private static final JabberEndpointResolver INSTANCE = new JabberEndpointResolver();
+
+	/**
+	 * A resolved address to connect to.
+	 */
+	static final class Candidate {
+		private final String host;
+		private final InetAddress address;
+		private final int port;
+
+		Candidate(String host, InetAddress address, int port) {
+			this.host = host;
+			this.address = address;
+			this.port = port;
+		}
+
+		String getHost() {
+			return this.host;
+		}
+
+		InetAddress getAddress() {
+			return this.address;
+		}
+
+		int getPort() {
+			return this.port;
+		}
+
+		String getKey() {
+			return this.address.getHostAddress() + ":" + this.port;
+		}
+
+		@Override
+		public String toString() {
+			return this.host + "/" + getKey();
+		}
+	}
+
+	private static final class CacheEntry<T> {
+		private final T value;
+		private final long expires;
+
+		CacheEntry(T value) {
+			this.value = value;
+			this.expires = System.currentTimeMillis() + TTL_MILLIS;
+		}
+
+		boolean isExpired() {
+			return System.currentTimeMillis() > this.expires;
+		}
+	}
+
+	private final ConcurrentMap<String, CacheEntry<List<JabberSrvRecords.Endpoint>>> srvCache = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, CacheEntry<InetAddress[]>> addressCache = new ConcurrentHashMap<>();
+
+	/**
+	 * Number of consecutive failures by {@link Candidate#getKey()}.
+	 */
+	private final ConcurrentMap<String, Integer> failures = new ConcurrentHashMap<>();
+
+	/**
+	 * Key of the candidate which last succeeded, by SRV name.
+	 */
+	private final ConcurrentMap<String, String> lastGood = new ConcurrentHashMap<>();
+
+	private JabberEndpointResolver() {
+	}
+
+	static JabberEndpointResolver getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Returns the endpoints announced in the SRV records with the given name, in the order in which they should be
+	 * tried. The records are cached as they were received and ordered anew on every call, so the weighted random
+	 * order of RFC 2782 spreads the connects over the endpoints.
+	 *
+	 * @param fallback the endpoint to use if there are no records. May be null.
+	 */
+	List<JabberSrvRecords.Endpoint> getEndpoints(String srvName, JabberSrvRecords.Endpoint fallback) {
+		CacheEntry<List<JabberSrvRecords.Endpoint>> cached = this.srvCache.get(srvName);
+		List<JabberSrvRecords.Endpoint> endpoints;
+		if (cached != null && !cached.isExpired()) {
+			JabberMetrics.increment("dns.srv.hits");
+			endpoints = cached.value;
+		} else {
+			JabberMetrics.increment("dns.srv.lookups");
+			try {
+				endpoints = JabberSrvRecords.lookup(srvName);
+				this.srvCache.put(srvName, new CacheEntry<>(endpoints));
+			} catch (NamingException e) {
+				if (cached == null) {
+					LOGGER.info("SRV lookup of " + srvName + " failed: " + e.getMessage());
+					endpoints = Collections.emptyList();
+				} else {
+					JabberMetrics.increment("dns.srv.stale");
+					LOGGER.info("SRV lookup of " + srvName + " failed. Using expired records: " + e.getMessage());
+					endpoints = cached.value;
+				}
+			}
+		}
+		if (endpoints.isEmpty() && fallback != null) {
+			return Collections.singletonList(fallback);
+		}
+		return JabberSrvRecords.order(endpoints, ThreadLocalRandom.current());
+	}
+
+	/**
+	 * Resolves the endpoints to addresses and races them.
+	 *
+	 * @param srvName the name the endpoints were looked up with
+	 * @return the first candidate which accepted a TCP connection or null if none did
+	 */
+	Candidate race(String srvName, List<JabberSrvRecords.Endpoint> endpoints) throws InterruptedException {
+		List<Candidate> candidates = new ArrayList<>();
+		for (JabberSrvRecords.Endpoint endpoint : endpoints) {
+			for (InetAddress address : getAddresses(endpoint.getHost())) {
+				candidates.add(new Candidate(endpoint.getHost(), address, endpoint.getPort()));
+			}
+		}
+		sort(srvName, candidates);
+		if (candidates.isEmpty()) {
+			return null;
+		}
+
+		ExecutorService executor = Executors.newCachedThreadPool(
+				new NamingThreadFactory(new DaemonThreadFactory(), JabberEndpointResolver.class.getSimpleName()));
+		CompletionService<Candidate> completionService = new ExecutorCompletionService<>(executor);
+		List<Future<Candidate>> attempts = new ArrayList<>();
+		try {
+			int next = 0;
+			int running = 0;
+			long deadline = 0;
+			while (true) {
+				// on the first pass, after a timeout and after a failure, the next attempt starts right away
+				if (next < candidates.size()) {
+					attempts.add(completionService.submit(probe(candidates.get(next++))));
+					running++;
+					// all attempts time out by themselves by then
+					deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MILLIS + RACE_DELAY_MILLIS;
+				}
+				if (running == 0) {
+					return null;
+				}
+				long wait = next < candidates.size() ? RACE_DELAY_MILLIS : deadline - System.currentTimeMillis();
+				Future<Candidate> done = wait > 0 ? completionService.poll(wait, TimeUnit.MILLISECONDS) : null;
+				if (done == null) {
+					if (next >= candidates.size()) {
+						// every candidate has been tried and none connected before the deadline
+						return null;
+					}
+					// too slow - start the next attempt in parallel
+					continue;
+				}
+				running--;
+				try {
+					Candidate winner = done.get();
+					this.lastGood.put(srvName, winner.getKey());
+					return winner;
+				} catch (ExecutionException e) {
+					// failed - the others may still succeed
+				}
+			}
+		} finally {
+			for (Future<Candidate> attempt : attempts) {
+				attempt.cancel(true);
+			}
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Records that a connection to the candidate worked.
+	 */
+	void succeeded(String srvName, Candidate candidate) {
+		this.failures.remove(candidate.getKey());
+		this.lastGood.put(srvName, candidate.getKey());
+	}
+
+	/**
+	 * Records that a connection to the candidate failed, so it's tried later next time.
+	 */
+	void failed(String srvName, Candidate candidate) {
+		recordFailure(candidate);
+		this.lastGood.remove(srvName, candidate.getKey());
+	}
+
+	private void recordFailure(Candidate candidate) {
+		JabberMetrics.increment("dns.endpoint.failures");
+		Integer count = this.failures.get(candidate.getKey());
+		this.failures.put(candidate.getKey(), count != null ? count + 1 : 1);
+	}
+
+	private Callable<Candidate> probe(final Candidate candidate) {
+		return new Callable<Candidate>() {
+			@Override
+			public Candidate call() throws IOException {
+				try (Socket socket = new Socket()) {
+					socket.connect(new InetSocketAddress(candidate.getAddress(), candidate.getPort()),
+							CONNECT_TIMEOUT_MILLIS);
+					return candidate;
+				} catch (IOException e) {
+					LOGGER.fine("Connecting to " + candidate + " failed: " + e.getMessage());
+					recordFailure(candidate);
+					throw e;
+				}
+			}
+		};
+	}
+
+	/**
+	 * Moves the candidate which last succeeded to the front and demotes candidates by their number of failures. The
+	 * sort is stable, so the SRV order is kept otherwise.
+	 */
+	private void sort(String srvName, List<Candidate> candidates) {
+		final String good = this.lastGood.get(srvName);
+		Collections.sort(candidates, new Comparator<Candidate>() {
+			@Override
+			public int compare(Candidate c1, Candidate c2) {
+				boolean good1 = c1.getKey().equals(good);
+				boolean good2 = c2.getKey().equals(good);
+				if (good1 != good2) {
+					return good1 ? -1 : 1;
+				}
+				return Integer.compare(failuresOf(c1), failuresOf(c2));
+			}
+		});
+	}
+
+	private int failuresOf(Candidate candidate) {
+		Integer count = this.failures.get(candidate.getKey());
+		return count != null ? count : 0;
+	}
+
+	private InetAddress[] getAddresses(String host) {
+		CacheEntry<InetAddress[]> cached = this.addressCache.get(host);
+		if (cached != null && !cached.isExpired()) {
+			return cached.value;
+		}
+		try {
+			InetAddress[] addresses = InetAddress.getAllByName(host);
+			this.addressCache.put(host, new CacheEntry<>(addresses));
+			return addresses;
+		} catch (UnknownHostException e) {
+			if (cached != null) {
+				JabberMetrics.increment("dns.address.stale");
+				LOGGER.info("Resolving " + host + " failed. Using expired addresses: " + e.getMessage());
+				return cached.value;
+			}
+			LOGGER.info("Resolving " + host + " failed: " + e.getMessage());
+			return new InetAddress[0];
+		}
+	}
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright (c) 2026 the original author or authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE
+ */
+package hudson.plugins.jabber.im.transport;
+
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+import hudson.Extension;
+import hudson.model.AdministrativeMonitor;
+
+/**
+ * Warns administrators if the XMPP connection looks unhealthy, i.e. if the round-trip time of keep-alive pings is
+ * high, nothing has been received from the server for a long time or there has been no connection for as long. This
+ * is meant to show problems before messages start to time out.
+ * <p>
+ * The warning also lists all {@link JabberMetrics}.
+ */
+@Extension
+public final class JabberHealthMonitor extends AdministrativeMonitor {
+
+	/**
+	 * Warn if the 95th percentile of the ping round-trip times exceeds this. A quarter of Smack's reply timeout.
+	 */
+	static final long RTT_WARNING_MILLIS = Long.getLong(JabberHealthMonitor.class.getName() + ".rttWarningMillis",
+			5000);
+
+	/**
+	 * Warn if nothing has been received or there has been no connection for this long. Several keep-alive intervals.
+	 */
+	static final long IDLE_WARNING_MILLIS = TimeUnit.MINUTES
+			.toMillis(Long.getLong(JabberHealthMonitor.class.getName() + ".idleWarningMinutes", 20));
+
+	@Override
+	public String getDisplayName() {
+		return "Jabber connection health";
+	}
+
+	@Override
+	public boolean isActivated() {
+		if (!JabberPublisher.DESCRIPTOR.isEnabled()) {
+			return false;
+		}
+		return getRoundTripTimeP95() >= RTT_WARNING_MILLIS || getIdleMillis() >= IDLE_WARNING_MILLIS
+				|| getDisconnectedMillis() >= IDLE_WARNING_MILLIS;
+	}
+
+	public long getRoundTripTimeP95() {
+		return value("keepalive.rtt.p95.millis");
+	}
+
+	public long getIdleMillis() {
+		return value("connection.idle.millis");
+	}
+
+	public long getIdleSeconds() {
+		return TimeUnit.MILLISECONDS.toSeconds(getIdleMillis());
+	}
+
+	public long getDisconnectedMillis() {
+		return JabberIMConnection.getDisconnectedMillis();
+	}
+
+	public long getDisconnectedSeconds() {
+		return TimeUnit.MILLISECONDS.toSeconds(getDisconnectedMillis());
+	}
+
+	public long getRttWarningMillis() {
+		return RTT_WARNING_MILLIS;
+	}
+
+	public long getIdleWarningMillis() {
+		return IDLE_WARNING_MILLIS;
+	}
+
+	public SortedMap<String, Long> getMetrics() {
+		return JabberMetrics.snapshot();
+	}
+
+	private static long value(String name) {
+		Long value = JabberMetrics.snapshot().get(name);
+		return value != null ? value : -1;
+	}
+}
@@ -25,47 +25,62 @@ package hudson.plugins.jabber.im.transport;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.ref.WeakReference;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Logger;
 
 import javax.annotation.Nullable;
 import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSession;
-import javax.net.ssl.SSLSocketFactory;
 import javax.security.sasl.SaslException;
 
 import hudson.Util;
 import hudson.plugins.im.AbstractIMConnection;
 import hudson.plugins.im.AuthenticationHolder;
+import hudson.plugins.im.DefaultIMMessageTarget;
 import hudson.plugins.im.GroupChatIMMessageTarget;
 import hudson.plugins.im.IMConnection;
 import hudson.plugins.im.IMConnectionListener;
 import hudson.plugins.im.IMException;
+import hudson.plugins.im.IMMessageListener;
 import hudson.plugins.im.IMMessageTarget;
 import hudson.plugins.im.IMPresence;
-import hudson.plugins.im.bot.Bot;
 import hudson.plugins.im.tools.ExceptionHelper;
 import hudson.util.DaemonThreadFactory;
 import hudson.util.NamingThreadFactory;
 import hudson.util.Secret;
 
 import org.apache.commons.io.IOUtils;
+import org.jivesoftware.smack.AbstractXMPPConnection;
 import org.jivesoftware.smack.ConnectionListener;
 import org.jivesoftware.smack.ReconnectionManager;
 import org.jivesoftware.smack.SmackConfiguration;
 import org.jivesoftware.smack.SmackException;
-import org.jivesoftware.smack.SmackException.NotConnectedException;
 import org.jivesoftware.smack.StanzaListener;
 import org.jivesoftware.smack.XMPPConnection;
 import org.jivesoftware.smack.XMPPException;
@@ -73,9 +88,9 @@ import org.jivesoftware.smack.chat.Chat;
 import org.jivesoftware.smack.chat.ChatManager;
 import org.jivesoftware.smack.debugger.SmackDebugger;
 import org.jivesoftware.smack.debugger.SmackDebuggerFactory;
+import org.jivesoftware.smack.filter.AndFilter;
 import org.jivesoftware.smack.filter.MessageTypeFilter;
 import org.jivesoftware.smack.filter.StanzaFilter;
-import org.jivesoftware.smack.packet.ExtensionElement;
 import org.jivesoftware.smack.packet.Message;
 import org.jivesoftware.smack.packet.Presence;
 import org.jivesoftware.smack.packet.PresenceBuilder;
@@ -87,15 +102,13 @@ import org.jivesoftware.smack.roster.Roster;
 import org.jivesoftware.smack.roster.Roster.SubscriptionMode;
 import org.jivesoftware.smack.roster.RosterEntry;
 import org.jivesoftware.smack.roster.packet.RosterPacket.ItemType;
+import org.jivesoftware.smack.sm.StreamManagementException.StreamManagementNotEnabledException;
 import org.jivesoftware.smack.tcp.XMPPTCPConnection;
 import org.jivesoftware.smack.tcp.XMPPTCPConnectionConfiguration;
-import org.jivesoftware.smack.util.TLSUtils;
-import org.jivesoftware.smackx.delay.packet.DelayInformation;
+import org.jivesoftware.smackx.muc.MucEnterConfiguration;
 import org.jivesoftware.smackx.muc.MultiUserChat;
-import org.jivesoftware.smackx.muc.MultiUserChatException.MucNotJoinedException;
 import org.jivesoftware.smackx.muc.MultiUserChatManager;
 import org.jivesoftware.smackx.nick.packet.Nick;
-import org.jivesoftware.smackx.ping.packet.Ping;
 import org.jivesoftware.smackx.vcardtemp.VCardManager;
 import org.jivesoftware.smackx.vcardtemp.packet.VCard;
 import org.jxmpp.jid.BareJid;
@@ -118,13 +131,138 @@ class JabberIMConnection extends AbstractIMConnection {
 
 	private static final Logger LOGGER = Logger.getLogger(JabberIMConnection.class.getName());
 
+	/**
+	 * Session resumption (XEP-0198) is requested for this many seconds after a connection loss.
+	 */
+	private static final int PREFERRED_RESUMPTION_TIME_SECONDS = 120;
+
+	/**
+	 * Delay before trying again to create a standby session.
+	 */
+	private static final int STANDBY_RETRY_SECONDS = 30;
+
+	/**
+	 * The server is pinged after the connection has been idle for this many seconds.
+	 */
+	private static final int KEEP_ALIVE_IDLE_SECONDS = Integer
+			.getInteger(JabberIMConnection.class.getName() + ".keepAliveIdleSeconds", 5 * 60);
+
+	/**
+	 * The connection is considered dead if the server doesn't answer a ping within this many seconds.
+	 */
+	private static final int PONG_TIMEOUT_SECONDS = Integer
+			.getInteger(JabberIMConnection.class.getName() + ".pongTimeoutSeconds", 10);
+
+	/**
+	 * Messages to a group chat wait at most this many seconds for the group chat to be joined.
+	 */
+	private static final int JOIN_TIMEOUT_SECONDS = Integer
+			.getInteger(JabberIMConnection.class.getName() + ".joinTimeoutSeconds", 60);
+
+	/**
+	 * Maximum number of private chats which are kept open.
+	 */
+	private static final int PRIVATE_CHAT_CACHE_SIZE = Integer
+			.getInteger(JabberIMConnection.class.getName() + ".privateChatCacheSize", 1000);
+
+	/**
+	 * Private chats are closed after they haven't been used for this many minutes.
+	 */
+	private static final int PRIVATE_CHAT_IDLE_MINUTES = Integer
+			.getInteger(JabberIMConnection.class.getName() + ".privateChatIdleMinutes", 60);
+
+	/**
+	 * Maximum number of group chats which are kept joined besides the configured ones, which are never evicted.
+	 */
+	private static final int GROUP_CHAT_CACHE_SIZE = Integer
+			.getInteger(JabberIMConnection.class.getName() + ".groupChatCacheSize", 256);
+
+	/**
+	 * Since when no connection has been usable, or 0 while one is. Shared by all instances, as a broken connection is
+	 * replaced by a new instance on every reconnect attempt.
+	 */
+	private static final AtomicLong DISCONNECTED_SINCE = new AtomicLong();
+
 	private volatile XMPPTCPConnection connection;
 
-	private final Map<BareJid, WeakReference<MultiUserChat>> groupChatCache = new HashMap<>();
-	private final Map<EntityJid, WeakReference<Chat>> chatCache = new HashMap<>();
-	private final Set<Bot> bots = new HashSet<Bot>();
+	/**
+	 * Connection lifecycle changes (connect, close, stream resumption) are the only operations which need exclusive
+	 * access. Everything which just uses the connection - sending messages and presence, keep-alive pings - takes the
+	 * read lock, so messages to different targets can be sent concurrently.
+	 */
+	private final ReadWriteLock connectionLock = new ReentrantReadWriteLock();
+
+	/**
+	 * Can be read without any locking, so status queries never block behind a long connect or join.
+	 */
+	private final AtomicReference<JabberConnectionState> state = new AtomicReference<>(
+			JabberConnectionState.DISCONNECTED);
+
+	/**
+	 * Joined group chats. An evicted group chat is detached from the bot and left.
+	 */
+	private final JabberSessionCache<BareJid, JabberChatSession<MultiUserChat>> groupChatCache =
+			new JabberSessionCache<>("groupchats", GROUP_CHAT_CACHE_SIZE, 0,
+			new JabberSessionCache.EvictionListener<BareJid, JabberChatSession<MultiUserChat>>() {
+				@Override
+				public void evicted(BareJid key, JabberChatSession<MultiUserChat> session) {
+					session.release();
+					MultiUserChat groupChat = session.getChat();
+					if (groupChat.isJoined()) {
+						try {
+							groupChat.leave();
+							LOGGER.info("Left evicted groupchat " + key);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						} catch (SmackException | XMPPException e) {
+							LOGGER.warning(ExceptionHelper.dump(e));
+						}
+					}
+				}
+			});
+
+	/**
+	 * Joins of the configured group chats which are still in progress. See {@link #joinGroupChats(List)}.
+	 */
+	private final Map<BareJid, Future<MultiUserChat>> pendingJoins = new ConcurrentHashMap<>();
+
+	/**
+	 * The join batches of the current connection. Replaced for every new connection, so joins of a previous
+	 * connection don't count.
+	 */
+	private volatile JoinBatches joinBatches = new JoinBatches();
+
+	/**
+	 * Open private chats. An evicted chat is detached from the bot and closed.
+	 */
+	private final JabberSessionCache<EntityJid, JabberChatSession<Chat>> chatCache = new JabberSessionCache<>("chats",
+			PRIVATE_CHAT_CACHE_SIZE, TimeUnit.MINUTES.toMillis(PRIVATE_CHAT_IDLE_MINUTES),
+			new JabberSessionCache.EvictionListener<EntityJid, JabberChatSession<Chat>>() {
+				@Override
+				public void evicted(EntityJid key, JabberChatSession<Chat> session) {
+					session.release();
+					session.getChat().close();
+				}
+			});
+
+	private ScheduledFuture<?> cacheCleanUp;
 	private final Secret passwd;
-	private final String botCommandPrefix;
+
+	/**
+	 * Queues the bot commands of all chats and creates the bots on demand.
+	 */
+	private final JabberBotDispatcher dispatcher;
+
+	/**
+	 * Runs the bot commands, so they don't block the Smack listener threads.
+	 */
+	private final JabberCommandExecutor commandExecutor;
+
+	/**
+	 * Drop inbound messages which aren't meant for the bot, before they are routed to a chat.
+	 */
+	private final JabberInboundFilter groupChatFilter;
+	private final JabberInboundFilter privateChatFilter;
 
 	/**
 	 * Jabber 'nick'. This is just the username-part of the Jabber-ID. I.e. for 'john.doe@gmail.com' it is 'john.doe'.
@@ -150,14 +288,13 @@ class JabberIMConnection extends AbstractIMConnection {
 	private final String hostnameOverride;
 	private final int port;
 
-	private final List<IMMessageTarget> groupChats;
+	private volatile List<IMMessageTarget> groupChats;
 
 	private IMPresence impresence;
 
 	private String imStatusMessage;
 
 	private final JabberPublisherDescriptor desc;
-	private final AuthenticationHolder authentication;
 
 	private Roster roster;
 
@@ -172,9 +309,75 @@ class JabberIMConnection extends AbstractIMConnection {
 
 	private final boolean acceptAllCerts;
 
-	private Runnable keepAliveCommand;
+	private final boolean directTls;
+
+	private final boolean warmStandby;
+
+	/**
+	 * The configuration of the last created XMPP connection. Used to create the standby session.
+	 */
+	private volatile XMPPTCPConnectionConfiguration configuration;
+
+	/**
+	 * A second, authenticated session which takes over if {@link #connection} fails. Only if {@link #warmStandby}.
+	 */
+	private volatile XMPPTCPConnection standby;
+
+	/**
+	 * Additional sessions which share the outbound private messages. Null if only the main connection is used.
+	 */
+	@Nullable
+	private final JabberSessionShards shards;
+
+	/**
+	 * Whether the additional sessions use Smack's non-blocking transport.
+	 */
+	private final boolean nonBlockingTransport;
+
+	private final boolean whitespaceKeepAlive;
+
+	private JabberKeepAlive keepAlive;
+
+	private final JabberRoundTripTimes roundTripTimes = new JabberRoundTripTimes();
+
+	/**
+	 * Runs the blocking background work: the logins of additional sessions, stream resumption and the promotion of
+	 * the standby session. Shut down by {@link #close()}.
+	 */
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+			new NamingThreadFactory(new DaemonThreadFactory(), JabberIMConnection.class.getSimpleName()));
+
+	/**
+	 * Runs the keep-alive and the cache clean-up, so the pings aren't delayed by a login or a resumption on the
+	 * {@link #scheduler}. Shut down by {@link #close()}.
+	 */
+	private final ScheduledExecutorService keepAliveScheduler = Executors.newSingleThreadScheduledExecutor(
+			new NamingThreadFactory(new DaemonThreadFactory(), JabberIMConnection.class.getSimpleName() + "-keepalive"));
 
-	private ScheduledExecutorService scheduler;
+	private volatile boolean closed;
+
+	private final JabberOutbox outbox;
+
+	private final JabberOutboundQueue outboundQueue;
+
+	private final Set<IMConnectionListener> listeners = new CopyOnWriteArraySet<>();
+
+	/**
+	 * The one listener which is registered on each new XMPP connection.
+	 */
+	private final ConnectionListener connectionListener = new ConnectionListener() {
+		@Override
+		public void connectionClosed() {
+			if (state.get().isConnected()) {
+				setState(JabberConnectionState.DISCONNECTED);
+			}
+		}
+
+		@Override
+		public void connectionClosedOnError(Exception e) {
+			handleConnectionError(e);
+		}
+	};
 
 	static {
 		SmackConfiguration.setDefaultReplyTimeout(20000);
@@ -196,7 +399,6 @@ class JabberIMConnection extends AbstractIMConnection {
 			throw new IMException(e);
 		}
 		this.desc = desc;
-		this.authentication = authentication;
 		this.hostnameOverride = desc.getHostname();
 		this.port = desc.getPort();
 		this.nick = desc.getNickname();
@@ -212,15 +414,104 @@ class JabberIMConnection extends AbstractIMConnection {
 		} catch (XmppStringprepException e) {
 			throw new IMException(e);
 		}
-		this.botCommandPrefix = desc.getCommandPrefix();
+		this.commandExecutor = new JabberCommandExecutor();
+		this.dispatcher = new JabberBotDispatcher(this.groupChatNick.toString(), desc.getHost(),
+				desc.getCommandPrefix(), authentication, this.commandExecutor);
+		this.groupChatFilter = JabberInboundFilter.forGroupChats(this.groupChatNick, desc.getCommandPrefix());
+		this.privateChatFilter = JabberInboundFilter.forPrivateChats(myJid.asBareJid());
 		this.groupChats = desc.getDefaultTargets();
+		pinGroupChats(this.groupChats);
 		this.impresence = desc.isExposePresence() ? IMPresence.AVAILABLE : IMPresence.UNAVAILABLE;
 		this.acceptAllCerts = desc.isAcceptAllCerts();
+		this.directTls = desc.isDirectTls();
+		this.warmStandby = desc.isWarmStandby();
+		this.shards = desc.getSessionCount() > 1 ? new JabberSessionShards(desc.getSessionCount()) : null;
+		this.nonBlockingTransport = desc.isNonBlockingTransport();
+		this.whitespaceKeepAlive = desc.isWhitespaceKeepAlive();
+		this.outbox = JabberOutbox.getInstance();
+		this.outboundQueue = new JabberOutboundQueue(new JabberOutboundQueue.Sender() {
+			@Override
+			public JabberOutboundQueue.Delivery send(JabberOutboundQueue.Message message) throws IMException {
+				return deliver(message);
+			}
+		}, this.outbox, desc.getCoalescingWindowMillis(), desc.getCoalescingMaxMessages(),
+				JabberRateLimiter.create(desc.getRateLimitPerMinute(), desc.getRateLimitPerTargetPerMinute(),
+						desc.getRateLimitBurst()));
+
+		JabberMetrics.gauge("connection.state", new JabberMetrics.Gauge() {
+			@Override
+			public long getValue() {
+				return state.get().ordinal();
+			}
+		});
+		JabberMetrics.gauge("outbound.queue.depth", new JabberMetrics.Gauge() {
+			@Override
+			public long getValue() {
+				return outboundQueue.getDepth();
+			}
+		});
+		JabberMetrics.gauge("connection.idle.millis", new JabberMetrics.Gauge() {
+			@Override
+			public long getValue() {
+				return getIdleMillis();
+			}
+		});
+		JabberMetrics.gauge("connection.disconnected.millis", new JabberMetrics.Gauge() {
+			@Override
+			public long getValue() {
+				return getDisconnectedMillis();
+			}
+		});
+		JabberMetrics.gauge("conversations.active", new JabberMetrics.Gauge() {
+			@Override
+			public long getValue() {
+				return chatCache.size() + groupChatCache.size();
+			}
+		});
+		if (this.shards != null) {
+			JabberMetrics.gauge("sessions.additional.active", new JabberMetrics.Gauge() {
+				@Override
+				public long getValue() {
+					return shards.getActiveCount();
+				}
+			});
+		}
+		registerRoundTripTimeGauge("keepalive.rtt.p50.millis", 50);
+		registerRoundTripTimeGauge("keepalive.rtt.p95.millis", 95);
+		registerRoundTripTimeGauge("keepalive.rtt.p99.millis", 99);
+	}
+
+	private void registerRoundTripTimeGauge(String name, final double percentile) {
+		JabberMetrics.gauge(name, new JabberMetrics.Gauge() {
+			@Override
+			public long getValue() {
+				return roundTripTimes.getPercentile(percentile);
+			}
+		});
+	}
+
+	/**
+	 * Returns the number of milliseconds since the last stanza was received or -1 if not connected.
+	 */
+	long getIdleMillis() {
+		XMPPTCPConnection c = this.connection;
+		if (c == null || !c.isAuthenticated()) {
+			return -1;
+		}
+		return System.currentTimeMillis() - c.getLastStanzaReceived();
+	}
+
+	/**
+	 * Returns for how long no connection has been usable, or 0 if one is.
+	 */
+	static long getDisconnectedMillis() {
+		long since = DISCONNECTED_SINCE.get();
+		return since != 0 ? System.currentTimeMillis() - since : 0;
 	}
 
 	@Override
 	public boolean connect() {
-		lock();
+		this.connectionLock.writeLock().lock();
 		try {
 			LOGGER.info("Trying to connect XMPP connection");
 			if (this.connection != null && this.connection.isConnected()) {
@@ -228,21 +519,51 @@ class JabberIMConnection extends AbstractIMConnection {
 				return true;
 			}
 			LOGGER.fine("creating new XMPP connection");
+			setState(JabberConnectionState.CONNECTING);
+			long start = System.nanoTime();
 			boolean connectingSucceeded = createConnection();
 			if (connectingSucceeded) {
+				// average connect time, including the TLS handshake, is connect.millis / connect.count
+				JabberMetrics.increment("connect.count");
+				JabberMetrics.counter("connect.millis")
+						.addAndGet(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			}
+			if (connectingSucceeded) {
+				setState(JabberConnectionState.AUTHENTICATED);
 				initNewConnection();
+				replayOutbox();
+				startStandby(0);
+				startShards(0);
+				startCacheCleanUp();
 			} else {
 				disconnect();
+				setState(JabberConnectionState.DISCONNECTED);
 			}
 			return connectingSucceeded;
 		} catch (final Exception e) {
 			LOGGER.warning(ExceptionHelper.dump(e));
+			setState(JabberConnectionState.DISCONNECTED);
 			return false;
 		} finally {
-			unlock();
+			this.connectionLock.writeLock().unlock();
 		}
 	}
 
+	/**
+	 * Evicts idle private chats even if no new chats are opened.
+	 */
+	private void startCacheCleanUp() {
+		if (this.cacheCleanUp != null) {
+			return;
+		}
+		this.cacheCleanUp = this.keepAliveScheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				chatCache.cleanUp();
+			}
+		}, 1, 1, TimeUnit.MINUTES);
+	}
+
 	private void disconnect() {
 		// clean-up if needed
 		if (this.connection != null && this.connection.isConnected()) {
@@ -264,44 +585,314 @@ class JabberIMConnection extends AbstractIMConnection {
 		// Don't know if it's true, but can't hurt, either.
 		sendPresence();
 
-		groupChatCache.clear();
-		for (IMMessageTarget chat : this.groupChats) {
-			GroupChatIMMessageTarget groupChat = (GroupChatIMMessageTarget) chat;
+		releaseChatSessions();
+		cancelPendingJoins();
+		this.joinBatches = new JoinBatches();
+		joinGroupChats(this.groupChats);
+	}
+
+	/**
+	 * Starts joining the given group chats concurrently, with at most
+	 * {@link JabberPublisherDescriptor#getGroupChatJoinParallelism()} joins in flight. Doesn't wait for the joins to
+	 * complete: messages to rooms which are already joined can be sent right away, messages to rooms which are still
+	 * being joined wait for that join in {@link #awaitJoin(GroupChatIMMessageTarget)}.
+	 */
+	private void joinGroupChats(List<IMMessageTarget> chats) {
+		if (chats.isEmpty()) {
+			setState(JabberConnectionState.AUTHENTICATED, JabberConnectionState.READY);
+			return;
+		}
+		final JoinBatches batches = this.joinBatches;
+		batches.started(chats.size());
+		int parallelism = Math.min(this.desc.getGroupChatJoinParallelism(), chats.size());
+		ExecutorService joinExecutor = Executors.newFixedThreadPool(parallelism,
+				new NamingThreadFactory(new DaemonThreadFactory(), JabberIMConnection.class.getSimpleName() + "-join"));
+		for (IMMessageTarget chat : chats) {
+			final GroupChatIMMessageTarget groupChat = (GroupChatIMMessageTarget) chat;
+			final EntityBareJid mucJid;
 			try {
-				getOrCreateGroupChat(groupChat);
-				LOGGER.info("Joined groupchat " + groupChat.getName());
-			} catch (IMException e) {
-				// if we got here, the XMPP connection could be established, but probably the groupchat name
-				// is invalid
-				LOGGER.warning("Unable to connect to groupchat '" + groupChat.getName()
-						+ "'. Did you append @conference or so to the name?\n" + "Exception: "
-						+ ExceptionHelper.dump(e));
+				mucJid = JidCreate.entityBareFromUnescaped(groupChat.getName());
+			} catch (XmppStringprepException e) {
+				LOGGER.warning("Invalid groupchat name '" + groupChat.getName() + "': " + e.getMessage());
+				batches.completed();
+				continue;
 			}
+			// done() also runs for joins which are cancelled before they have started
+			FutureTask<MultiUserChat> join = new FutureTask<MultiUserChat>(new Callable<MultiUserChat>() {
+				@Override
+				public MultiUserChat call() throws IMException {
+					long start = System.nanoTime();
+					try {
+						MultiUserChat muc = joinGroupChat(mucJid, groupChat);
+						LOGGER.info("Joined groupchat " + groupChat.getName() + " in "
+								+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+						return muc;
+					} catch (IMException e) {
+						// if we got here, the XMPP connection could be established, but probably the groupchat name
+						// is invalid
+						LOGGER.warning("Unable to connect to groupchat '" + groupChat.getName()
+								+ "'. Did you append @conference or so to the name?\n" + "Exception: "
+								+ ExceptionHelper.dump(e));
+						throw e;
+					}
+				}
+			}) {
+				@Override
+				protected void done() {
+					pendingJoins.remove(mucJid, this);
+					batches.completed();
+				}
+			};
+			this.pendingJoins.put(mucJid, join);
+			joinExecutor.execute(join);
 		}
+		// let the threads die once all joins are done or cancelled
+		joinExecutor.shutdown();
+	}
+
+	/**
+	 * Cancels all joins which haven't completed yet. Messages waiting for them are kept for later.
+	 */
+	private void cancelPendingJoins() {
+		for (Future<MultiUserChat> pendingJoin : this.pendingJoins.values()) {
+			pendingJoin.cancel(true);
+		}
+		this.pendingJoins.clear();
+	}
+
+	/**
+	 * Applies a changed configuration which doesn't need a new XMPP connection: leaves the removed group chats and
+	 * joins the added ones, updates the presence and the subscription mode and swaps the command prefix of the bot.
+	 * Everything else is only picked up by a reconnect.
+	 */
+	void applyConfiguration(JabberPublisherDescriptor newDesc) {
+		this.connectionLock.writeLock().lock();
+		try {
+			Map<String, IMMessageTarget> removedGroupChats = new LinkedHashMap<>();
+			for (IMMessageTarget target : this.groupChats) {
+				removedGroupChats.put(keyOf((GroupChatIMMessageTarget) target), target);
+			}
+			List<IMMessageTarget> addedGroupChats = new ArrayList<>();
+			for (IMMessageTarget target : newDesc.getDefaultTargets()) {
+				if (removedGroupChats.remove(keyOf((GroupChatIMMessageTarget) target)) == null) {
+					addedGroupChats.add(target);
+				}
+			}
+			this.groupChats = newDesc.getDefaultTargets();
+			pinGroupChats(this.groupChats);
+
+			boolean presenceChanged = (this.impresence == IMPresence.UNAVAILABLE) == newDesc.isExposePresence();
+			if (presenceChanged) {
+				this.impresence = newDesc.isExposePresence() ? IMPresence.AVAILABLE : IMPresence.UNAVAILABLE;
+			}
+
+			this.dispatcher.setCommandPrefix(newDesc.getCommandPrefix());
+			this.groupChatFilter.setCommandPrefix(newDesc.getCommandPrefix());
+
+			if (!isConnected()) {
+				// the next connect picks up the new settings
+				return;
+			}
+			for (IMMessageTarget target : removedGroupChats.values()) {
+				leaveGroupChat((GroupChatIMMessageTarget) target);
+			}
+			if (presenceChanged) {
+				sendPresence();
+				if (this.impresence == IMPresence.UNAVAILABLE) {
+					// the server has taken us out of all rooms, see setPresence
+					for (IMMessageTarget target : this.groupChats) {
+						if (!addedGroupChats.contains(target)) {
+							forgetGroupChat(JidCreate.entityBareFromUnescapedOrThrowUnchecked(
+									((GroupChatIMMessageTarget) target).getName()));
+							addedGroupChats.add(target);
+						}
+					}
+				}
+			}
+			if (!addedGroupChats.isEmpty()) {
+				joinGroupChats(addedGroupChats);
+			}
+			setupSubscriptionMode();
+		} finally {
+			this.connectionLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Keeps the configured group chats from being evicted from the {@link #groupChatCache}, so notifications to them
+	 * don't stop.
+	 */
+	private void pinGroupChats(List<IMMessageTarget> targets) {
+		List<BareJid> mucJids = new ArrayList<>(targets.size());
+		for (IMMessageTarget target : targets) {
+			mucJids.add(JidCreate.entityBareFromUnescapedOrThrowUnchecked(
+					((GroupChatIMMessageTarget) target).getName()));
+		}
+		this.groupChatCache.setPinned(mucJids);
+	}
+
+	private static String keyOf(GroupChatIMMessageTarget target) {
+		return target.getName() + '\n' + target.getPassword() + '\n' + target.isNotificationOnly();
+	}
+
+	private void leaveGroupChat(GroupChatIMMessageTarget chat) {
+		EntityBareJid mucJid;
+		try {
+			mucJid = JidCreate.entityBareFromUnescaped(chat.getName());
+		} catch (XmppStringprepException e) {
+			// was never joined
+			return;
+		}
+		Future<MultiUserChat> pendingJoin = this.pendingJoins.remove(mucJid);
+		if (pendingJoin != null) {
+			pendingJoin.cancel(true);
+		}
+		MultiUserChat groupChat = forgetGroupChat(mucJid);
+		if (groupChat != null && groupChat.isJoined()) {
+			try {
+				groupChat.leave();
+				LOGGER.info("Left groupchat " + chat.getName());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (SmackException | XMPPException e) {
+				LOGGER.warning(ExceptionHelper.dump(e));
+			}
+		}
+	}
+
+	/**
+	 * Removes a group chat from the cache and detaches it from the bot, without leaving it.
+	 *
+	 * @return the group chat or null if it wasn't joined
+	 */
+	@Nullable
+	private MultiUserChat forgetGroupChat(EntityBareJid mucJid) {
+		JabberChatSession<MultiUserChat> session = this.groupChatCache.remove(mucJid);
+		if (session == null) {
+			return null;
+		}
+		session.release();
+		return session.getChat();
+	}
+
+	/**
+	 * Detaches all cached chats from the bot and empties the caches, e.g. because the chats belong to a connection
+	 * which is gone.
+	 */
+	private void releaseChatSessions() {
+		for (JabberChatSession<MultiUserChat> session : this.groupChatCache.values()) {
+			session.release();
+		}
+		this.groupChatCache.clear();
+		for (JabberChatSession<Chat> session : this.chatCache.values()) {
+			session.release();
+		}
+		this.chatCache.clear();
+	}
+
+	/**
+	 * Returns the current state of this connection. Never blocks.
+	 */
+	JabberConnectionState getState() {
+		return this.state.get();
+	}
+
+	private void setState(JabberConnectionState newState) {
+		stateChanged(this.state.getAndSet(newState), newState);
+	}
+
+	/**
+	 * Changes the state only if it is the expected one.
+	 *
+	 * @return whether the state has been changed
+	 */
+	private boolean setState(JabberConnectionState expectedState, JabberConnectionState newState) {
+		if (!this.state.compareAndSet(expectedState, newState)) {
+			return false;
+		}
+		stateChanged(expectedState, newState);
+		return true;
+	}
+
+	private static void stateChanged(JabberConnectionState oldState, JabberConnectionState newState) {
+		if (newState.isConnected()) {
+			DISCONNECTED_SINCE.set(0);
+		} else {
+			DISCONNECTED_SINCE.compareAndSet(0, System.currentTimeMillis());
+		}
+		if (oldState != newState) {
+			JabberMetrics.increment("connection.transitions." + newState.name().toLowerCase(Locale.ENGLISH));
+			LOGGER.fine("Connection state changed from " + oldState + " to " + newState);
+		}
+	}
+
+	/**
+	 * Queues all messages which are still pending in the {@link JabberOutbox}, e.g. because they were sent while the
+	 * connection was down.
+	 */
+	private void replayOutbox() {
+		if (this.outbox == null) {
+			return;
+		}
+		List<JabberOutbox.Entry> entries = this.outbox.getPendingEntries();
+		List<JabberOutboundQueue.Message> messages = new ArrayList<>(entries.size());
+		for (JabberOutbox.Entry entry : entries) {
+			messages.add(new JabberOutboundQueue.Message(toTarget(entry), entry.getText(), entry.getId()));
+		}
+		this.outboundQueue.replay(messages);
+	}
+
+	private IMMessageTarget toTarget(JabberOutbox.Entry entry) {
+		if (!entry.isGroupChat()) {
+			return new DefaultIMMessageTarget(entry.getTarget());
+		}
+		// prefer the configured group chat, as that one knows the password
+		for (IMMessageTarget target : this.groupChats) {
+			if (entry.getTarget().equals(((GroupChatIMMessageTarget) target).getName())) {
+				return target;
+			}
+		}
+		return new GroupChatIMMessageTarget(entry.getTarget(), (Secret) null, false);
 	}
 
 	@Override
 	public void close() {
-		lock();
+		this.closed = true;
+		setState(JabberConnectionState.CLOSING);
+		this.outboundQueue.shutdown();
+		this.commandExecutor.shutdown();
+		this.connectionLock.writeLock().lock();
 		try {
 			try {
-				for (WeakReference<MultiUserChat> entry : groupChatCache.values()) {
-					MultiUserChat chat = entry.get();
-					if (chat != null && chat.isJoined()) {
-						chat.leave();
+				for (JabberChatSession<MultiUserChat> session : groupChatCache.values()) {
+					if (session.getChat().isJoined()) {
+						session.getChat().leave();
 					}
 				}
 				// there seems to be no way to leave a 1-on-1 chat with Smack
 
-				this.groupChatCache.clear();
-				this.chatCache.clear();
+				releaseChatSessions();
+				cancelPendingJoins();
+
+				if (this.keepAlive != null) {
+					this.keepAlive.stop();
+					this.keepAlive = null;
+				}
+				this.scheduler.shutdownNow();
+				this.keepAliveScheduler.shutdownNow();
+				this.cacheCleanUp = null;
+
+				if (this.shards != null) {
+					this.shards.disconnectAll();
+				}
 
-				if (this.scheduler != null) {
-					this.scheduler.shutdownNow();
-					this.scheduler = null;
+				XMPPTCPConnection oldStandby = this.standby;
+				this.standby = null;
+				if (oldStandby != null) {
+					oldStandby.disconnect();
 				}
 
-				if (this.connection.isConnected()) {
+				if (this.connection != null && this.connection.isConnected()) {
 					this.connection.disconnect();
 				}
 			} catch (Exception e) {
@@ -309,9 +900,10 @@ class JabberIMConnection extends AbstractIMConnection {
 				LOGGER.fine(e.toString());
 			} finally {
 				this.connection = null;
+				setState(JabberConnectionState.DISCONNECTED);
 			}
 		} finally {
-			unlock();
+			this.connectionLock.writeLock().unlock();
 		}
 	}
 
@@ -345,158 +937,501 @@ class JabberIMConnection extends AbstractIMConnection {
 		}
 
 		String serviceName = desc.getServiceName();
-		final XMPPTCPConnectionConfiguration.Builder cfg = XMPPTCPConnectionConfiguration.builder();
 
-		if (pi != null) {
-			cfg.setProxyInfo(pi);
+		// shared between reconnects, so TLS sessions can be resumed
+		final SSLContext sslContext = JabberSslContexts.get(this.acceptAllCerts);
+
+		if (this.directTls && pi != null) {
+			LOGGER.info("Direct TLS isn't used via a proxy. Connecting as usual.");
+		} else if (this.directTls && this.hostnameOverride == null && serviceName != null
+				&& connectWithDirectTls(sslContext, serviceName)) {
+			return login();
 		}
 
+		final XMPPTCPConnectionConfiguration.Builder cfg = newConfigurationBuilder(pi);
+		String srvName = null;
+		JabberEndpointResolver.Candidate endpoint = null;
+
 		if (serviceName == null) {
 			cfg.setHost(hostnameOverride).setPort(port);
 		} else if (this.hostnameOverride == null) {
 			// uses DNS lookup, to get the actual hostname for this service:
 			cfg.setXmppDomain(serviceName);
+			if (pi == null) {
+				// resolve and pick the endpoint ourselves, which is faster than Smack's serial attempts
+				srvName = JabberEndpointResolver.XMPP_CLIENT + serviceName;
+				JabberEndpointResolver resolver = JabberEndpointResolver.getInstance();
+				endpoint = resolver.race(srvName, resolver.getEndpoints(srvName,
+						new JabberSrvRecords.Endpoint(0, 0, serviceName, this.port)));
+				if (endpoint != null) {
+					cfg.setHostAddress(endpoint.getAddress()).setPort(endpoint.getPort());
+				}
+			}
 		} else {
 			cfg.setHost(hostnameOverride).setPort(port).setXmppDomain(serviceName);
 		}
 
-		cfg.setDebuggerFactory(new SmackDebuggerFactory() {
+		final String tlsModeKey = JabberTlsModes.keyOf(serviceName, this.hostnameOverride, this.port);
+		final JabberTlsModes.Mode tlsMode = JabberTlsModes.getPreferredMode(tlsModeKey);
+		XMPPTCPConnectionConfiguration conf = tlsMode.configure(cfg, sslContext);
+
+		final XMPPTCPConnection connection = newConnection(conf);
+
+		this.connection = connection;
+		LOGGER.info("Trying to connect to XMPP on " + "/" + connection.getXMPPServiceDomain()
+				+ (tlsMode == JabberTlsModes.Mode.LEGACY_SSL ? " with legacy SSL" : "")
+				+ (conf.isCompressionEnabled() ? " using compression" : "")
+				+ (pi != null
+						? " via proxy " + pi.getProxyType() + " " + pi.getProxyAddress() + ":" + pi.getProxyPort()
+						: ""));
+
+		boolean retryWithOtherTlsMode = false;
+		Exception originalException = null;
+		try {
+			this.connection.connect();
+			if (!this.connection.isConnected()) {
+				retryWithOtherTlsMode = true;
+			}
+		} catch (XMPPException | SmackException | IOException e) {
+			LOGGER.warning(ExceptionHelper.dump(e));
+			retryWithOtherTlsMode = true;
+			originalException = e;
+		}
+
+		JabberTlsModes.Mode connectedMode = tlsMode;
+		if (retryWithOtherTlsMode) {
+			// don't start with a mode which just failed next time
+			JabberTlsModes.forgetMode(tlsModeKey);
+			connectedMode = tlsMode.other();
+			retryConnection(cfg, sslContext, connectedMode, originalException);
+		}
+
+		if (this.connection.isConnected()) {
+			JabberTlsModes.setWorkingMode(tlsModeKey, connectedMode);
+		}
+		if (endpoint != null) {
+			if (this.connection.isConnected()) {
+				JabberEndpointResolver.getInstance().succeeded(srvName, endpoint);
+			} else {
+				JabberEndpointResolver.getInstance().failed(srvName, endpoint);
+			}
+		}
+		return login();
+	}
+
+	/**
+	 * Logs in on the just connected {@link #connection} and sets it up.
+	 */
+	private boolean login() throws XMPPException, SmackException, IOException, InterruptedException {
+		if (this.connection.isConnected()) {
+			this.connection.addConnectionListener(this.connectionListener);
+			this.connection.login(this.desc.getUserName(), Secret.toString(this.passwd),
+					this.resource);
+			LOGGER.info("Stream management (XEP-0198) is " + (this.connection.isSmEnabled() ? "enabled" : "not available"));
+
+			setupSubscriptionMode();
+			createVCardIfNeeded();
+
+			installServerTypeHacks();
+
+			listenForPrivateChats();
+			listenForGroupChatMessages();
+		}
+
+		return this.connection.isAuthenticated();
+	}
+
+	/**
+	 * Creates a new XMPP connection with stream management (XEP-0198) and stream resumption enabled, so that
+	 * short network outages don't require a full reconnect.
+	 */
+	private XMPPTCPConnection newConnection(XMPPTCPConnectionConfiguration conf) {
+		this.configuration = conf;
+		XMPPTCPConnection connection = new XMPPTCPConnection(conf);
+		connection.setUseStreamManagement(true);
+		connection.setUseStreamManagementResumption(true);
+		connection.setPreferredResumptionTime(PREFERRED_RESUMPTION_TIME_SECONDS);
+		return connection;
+	}
+
+	/**
+	 * Called if the XMPP connection was closed due to an error. If the server supports it, we try to resume the
+	 * stream first. Only if that is not possible, the listeners are notified, which will result in a full reconnect.
+	 */
+	private void handleConnectionError(final Exception e) {
+		final XMPPTCPConnection brokenConnection = this.connection;
+		if (brokenConnection != null && this.standby != null) {
+			setState(JabberConnectionState.CONNECTING);
+			LOGGER.info("XMPP connection closed on error. Switching to the standby session: " + e.getMessage());
+			this.scheduler.execute(new Runnable() {
+				@Override
+				public void run() {
+					if (!promoteStandby(brokenConnection)) {
+						resumeOrReconnect(brokenConnection, e);
+					}
+				}
+			});
+			return;
+		}
+		resumeOrReconnect(brokenConnection, e);
+	}
+
+	private void resumeOrReconnect(final XMPPTCPConnection brokenConnection, final Exception e) {
+		if (brokenConnection == null || !brokenConnection.isSmResumptionPossible()) {
+			setState(JabberConnectionState.DISCONNECTED);
+			notifyConnectionBroken(e);
+			return;
+		}
+		setState(JabberConnectionState.CONNECTING);
+		LOGGER.info("XMPP connection closed on error. Trying to resume the stream: " + e.getMessage());
+		this.scheduler.execute(new Runnable() {
 			@Override
-			public SmackDebugger create(XMPPConnection connection) {
-				return new JabberConnectionDebugger(connection);
+			public void run() {
+				if (!resumeStream(brokenConnection)) {
+					setState(JabberConnectionState.DISCONNECTED);
+					notifyConnectionBroken(e);
+				}
 			}
 		});
+	}
 
-		if (acceptAllCerts) {
-			TLSUtils.acceptAllCertificates(cfg);
-			cfg.setHostnameVerifier(new HostnameVerifier() {
+	/**
+	 * Creates a new standby session in the background after the given delay, if enabled.
+	 */
+	private void startStandby(long delaySeconds) {
+		if (!this.warmStandby || this.closed) {
+			return;
+		}
+		try {
+			this.scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					createStandby();
+				}
+			}, delaySeconds, TimeUnit.SECONDS);
+		} catch (RejectedExecutionException e) {
+			// closed in the meantime
+		}
+	}
+
+	/**
+	 * Logs in a second session with another resource and priority 0, so it doesn't receive any messages sent to the
+	 * bare JID. It doesn't join any group chats; that is done when it's promoted.
+	 */
+	private void createStandby() {
+		XMPPTCPConnectionConfiguration conf = this.configuration;
+		if (conf == null || !this.state.get().isConnected() || this.standby != null) {
+			return;
+		}
+		try {
+			// with stream management, as it may become the main connection
+			final XMPPTCPConnection newStandby = newConnection(conf);
+			loginAdditionalSession(newStandby, "-standby");
+			newStandby.addConnectionListener(new ConnectionListener() {
 				@Override
-				public boolean verify(String arg0, SSLSession arg1) {
-					return true;
+				public void connectionClosedOnError(Exception e) {
+					if (standby == newStandby) {
+						LOGGER.info("Standby session closed on error. Creating a new one: " + e.getMessage());
+						standby = null;
+						startStandby(STANDBY_RETRY_SECONDS);
+					}
 				}
 			});
+			this.standby = newStandby;
+			if (this.closed) {
+				// close() may have missed it
+				this.standby = null;
+				newStandby.disconnect();
+				return;
+			}
+			JabberMetrics.increment("standby.created");
+			LOGGER.info("Standby session is ready");
+		} catch (Exception e) {
+			LOGGER.warning("Unable to create standby session: " + ExceptionHelper.dump(e));
+			startStandby(STANDBY_RETRY_SECONDS);
 		}
+	}
 
-		XMPPTCPConnectionConfiguration conf = cfg.build();
-
-		final XMPPTCPConnection connection = new XMPPTCPConnection(conf);
+	/**
+	 * Creates the additional sending sessions in the background after the given delay.
+	 */
+	private void startShards(long delaySeconds) {
+		if (this.shards == null) {
+			return;
+		}
+		for (int shard = 1; shard < this.shards.getCount(); shard++) {
+			startShard(shard, delaySeconds);
+		}
+	}
 
-		this.connection = connection;
-		LOGGER.info("Trying to connect to XMPP on " + "/" + connection.getXMPPServiceDomain()
-				+ (conf.isCompressionEnabled() ? " using compression" : "")
-				+ (pi != null
-						? " via proxy " + pi.getProxyType() + " " + pi.getProxyAddress() + ":" + pi.getProxyPort()
-						: ""));
+	private void startShard(final int shard, long delaySeconds) {
+		if (this.closed) {
+			return;
+		}
+		try {
+			this.scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					createShard(shard);
+				}
+			}, delaySeconds, TimeUnit.SECONDS);
+		} catch (RejectedExecutionException e) {
+			// closed in the meantime
+		}
+	}
 
-		boolean retryWithLegacySSL = false;
-		Exception originalException = null;
+	private void createShard(final int shard) {
+		XMPPTCPConnectionConfiguration conf = this.configuration;
+		if (conf == null || !this.state.get().isConnected()) {
+			return;
+		}
 		try {
-			this.connection.connect();
-			if (!this.connection.isConnected()) {
-				retryWithLegacySSL = true;
+			final AbstractXMPPConnection session = this.nonBlockingTransport
+					&& JabberNonBlockingConnections.isSupported(conf)
+							? JabberNonBlockingConnections.create(conf)
+							: newConnection(conf);
+			listenForAdditionalSessionChats(session);
+			loginAdditionalSession(session, "-" + shard);
+			session.addConnectionListener(new ConnectionListener() {
+				@Override
+				public void connectionClosedOnError(Exception e) {
+					if (shards.remove(shard, session)) {
+						LOGGER.info("Session " + shard + " closed on error. Creating a new one: " + e.getMessage());
+						startShard(shard, STANDBY_RETRY_SECONDS);
+					}
+				}
+			});
+			this.shards.set(shard, session);
+			if (this.closed) {
+				// close() may have missed it
+				this.shards.remove(shard, session);
+				session.disconnect();
+				return;
 			}
-		} catch (XMPPException e) {
-			retryWithLegacySSL = true;
-			originalException = e;
-		} catch (SmackException.NoResponseException e) {
-			retryWithLegacySSL = true;
-			originalException = e;
-		} catch (SmackException e) {
-			LOGGER.warning(ExceptionHelper.dump(e));
-		} catch (IOException e) {
-			LOGGER.warning(ExceptionHelper.dump(e));
+			LOGGER.info("Additional session " + shard + " is ready");
+		} catch (Exception e) {
+			LOGGER.warning("Unable to create additional session " + shard + ": " + ExceptionHelper.dump(e));
+			startShard(shard, STANDBY_RETRY_SECONDS);
 		}
+	}
 
-		if (retryWithLegacySSL) {
-			retryConnectionWithLegacySSL(cfg, originalException);
+	/**
+	 * Logs in another session of our account. The session gets the resource with the given suffix and presence
+	 * priority 0, so it doesn't receive any messages sent to the bare JID.
+	 */
+	private void loginAdditionalSession(AbstractXMPPConnection session, String resourceSuffix) throws Exception {
+		try {
+			session.connect();
+			session.login(this.desc.getUserName(), Secret.toString(this.passwd),
+					Resourcepart.from((this.resource != null ? this.resource.toString() : "Jenkins") + resourceSuffix));
+			session.sendStanza(session.getStanzaFactory().buildPresenceStanza()
+					.setPriority(0).setMode(Presence.Mode.available).build());
+		} catch (Exception e) {
+			session.disconnect();
+			throw e;
 		}
+	}
 
-		if (this.connection.isConnected()) {
-			this.connection.login(this.desc.getUserName(), Secret.toString(this.passwd),
-					this.resource);
-
+	/**
+	 * Makes the standby session the active connection: sends our presence on it, joins the group chats and sends
+	 * messages which couldn't be sent over the broken connection. Then creates a new standby session.
+	 *
+	 * @return false if there is no usable standby session
+	 */
+	private boolean promoteStandby(XMPPTCPConnection brokenConnection) {
+		this.connectionLock.writeLock().lock();
+		try {
+			if (this.connection != brokenConnection) {
+				// closed or replaced in the meantime
+				return true;
+			}
+			XMPPTCPConnection promoted = this.standby;
+			this.standby = null;
+			if (promoted == null || !promoted.isAuthenticated()) {
+				return false;
+			}
+			if (this.keepAlive != null) {
+				this.keepAlive.stop();
+				this.keepAlive = null;
+			}
+			brokenConnection.removeConnectionListener(this.connectionListener);
+			this.connection = promoted;
+			this.connection.addConnectionListener(this.connectionListener);
 			setupSubscriptionMode();
-			createVCardIfNeeded();
-
 			installServerTypeHacks();
-
 			listenForPrivateChats();
+			listenForGroupChatMessages();
+			setState(JabberConnectionState.AUTHENTICATED);
+			initNewConnection();
+			JabberMetrics.increment("standby.promotions");
+			LOGGER.info("Switched to the standby session");
+		} finally {
+			this.connectionLock.writeLock().unlock();
 		}
+		// stanzas which the broken stream had sent, but which weren't acknowledged, stay in the outbox and are
+		// replayed on the next full connect
+		this.outboundQueue.retryDeferred();
+		startStandby(0);
+		return true;
+	}
 
-		return this.connection.isAuthenticated();
+	private boolean resumeStream(XMPPTCPConnection brokenConnection) {
+		this.connectionLock.writeLock().lock();
+		try {
+			if (this.connection != brokenConnection) {
+				// closed or replaced in the meantime
+				return true;
+			}
+			brokenConnection.connect();
+			// login() reuses the credentials of the previous login and resumes the stream if possible
+			brokenConnection.login();
+			if (brokenConnection.streamWasResumed()) {
+				LOGGER.info("Resumed XMPP stream. Unacknowledged stanzas are retransmitted.");
+				setState(JabberConnectionState.READY);
+				this.outboundQueue.retryDeferred();
+				return true;
+			}
+			LOGGER.info("Server didn't resume the XMPP stream. Falling back to a full reconnect.");
+		} catch (Exception ex) {
+			LOGGER.info("Resuming the XMPP stream failed: " + ExceptionHelper.dump(ex));
+		} finally {
+			this.connectionLock.writeLock().unlock();
+		}
+		// login() may have bound a new session on the old connection. It would live on next to the one of the full
+		// reconnect and receive messages nobody listens to.
+		brokenConnection.instantShutdown();
+		return false;
+	}
+
+	private void notifyConnectionBroken(Exception e) {
+		for (IMConnectionListener listener : this.listeners) {
+			listener.connectionBroken(e);
+		}
 	}
 
 	private void installServerTypeHacks() {
 		if (this.connection.getXMPPServiceDomain().toString().contains("hipchat")) {
 			// JENKINS-25222: HipChat connections time out after 150 seconds
 			// (http://help.hipchat.com/knowledgebase/articles/64377-xmpp-jabber-support-details)
-			addConnectionKeepAlivePings(60);
+			addConnectionKeepAlive(60);
 		} else {
 			// JENKINS-25676: other servers also seem to require pings, but 5 minute intervals should be enough in this
 			// case
-			addConnectionKeepAlivePings(5 * 60);
+			addConnectionKeepAlive(KEEP_ALIVE_IDLE_SECONDS);
 		}
 	}
 
-	private void addConnectionKeepAlivePings(int keepAlivePeriodInSeconds) {
-		if (this.scheduler == null) {
-			this.scheduler = Executors.newSingleThreadScheduledExecutor(
-					new NamingThreadFactory(new DaemonThreadFactory(), JabberIMConnection.class.getSimpleName()));
+	/**
+	 * Pings the server whenever the connection has been idle for the given time and tears the connection down if the
+	 * server doesn't answer.
+	 */
+	private void addConnectionKeepAlive(int idleSeconds) {
+		if (this.keepAlive != null) {
+			this.keepAlive.stop();
 		}
+		this.keepAlive = new JabberKeepAlive(this.connection, idleSeconds, TimeUnit.SECONDS.toMillis(PONG_TIMEOUT_SECONDS),
+				this.whitespaceKeepAlive, this.roundTripTimes, new JabberKeepAlive.Listener() {
+					@Override
+					public void connectionDead(String reason) {
+						XMPPTCPConnection deadConnection = connection;
+						if (deadConnection == null) {
+							return;
+						}
+						// close the socket without ending the stream, so it can still be resumed
+						deadConnection.instantShutdown();
+						handleConnectionError(new IOException(reason));
+					}
+				});
+		this.keepAlive.start(this.keepAliveScheduler);
+	}
 
-		if (keepAliveCommand != null) {
-			return;
-		}
+	private XMPPTCPConnectionConfiguration.Builder newConfigurationBuilder(@Nullable ProxyInfo pi) {
+		final XMPPTCPConnectionConfiguration.Builder cfg = XMPPTCPConnectionConfiguration.builder();
 
-		keepAliveCommand = new Runnable() {
+		if (pi != null) {
+			cfg.setProxyInfo(pi);
+		}
 
+		cfg.setDebuggerFactory(new SmackDebuggerFactory() {
 			@Override
-			public void run() {
-				// prevent long waits for lock
-				try {
-					if (!tryLock(5, TimeUnit.SECONDS)) {
-						return;
-					}
-
-					try {
-						connection.sendStanza(new Ping());
-					} catch (NotConnectedException e) {
-						// connection died, so lets scheduled task die, too
-						throw new RuntimeException(e);
-					} finally {
-						unlock();
-					}
+			public SmackDebugger create(XMPPConnection connection) {
+				return new JabberConnectionDebugger(connection);
+			}
+		});
 
-				} catch (InterruptedException e) {
-					Thread.currentThread().interrupt();
+		if (acceptAllCerts) {
+			cfg.setHostnameVerifier(new HostnameVerifier() {
+				@Override
+				public boolean verify(String arg0, SSLSession arg1) {
+					return true;
 				}
-			}
-		};
-		scheduler.scheduleAtFixedRate(keepAliveCommand, keepAlivePeriodInSeconds, keepAlivePeriodInSeconds,
-				TimeUnit.SECONDS);
+			});
+		}
+		return cfg;
+	}
+
+	/**
+	 * Connects with direct TLS (XEP-0368) to one of the endpoints announced in the {@code _xmpps-client} SRV records
+	 * of the service, which saves the round trips of the STARTTLS negotiation.
+	 *
+	 * Not used with a proxy: the direct TLS socket factory would replace the one which connects via the proxy.
+	 *
+	 * @return true if connected. False if there are no such records or no endpoint could be connected to, in which
+	 *         case the caller should fall back to a normal connection.
+	 */
+	private boolean connectWithDirectTls(SSLContext sslContext, String serviceName) throws InterruptedException {
+		JabberEndpointResolver resolver = JabberEndpointResolver.getInstance();
+		String srvName = JabberSrvRecords.XMPPS_CLIENT + serviceName;
+		List<JabberSrvRecords.Endpoint> endpoints = resolver.getEndpoints(srvName, null);
+		if (endpoints.isEmpty()) {
+			LOGGER.info("No direct TLS endpoints announced for " + serviceName + ". Using STARTTLS.");
+			return false;
+		}
+		JabberEndpointResolver.Candidate endpoint = resolver.race(srvName, endpoints);
+		if (endpoint == null) {
+			LOGGER.info("None of the direct TLS endpoints " + endpoints + " is reachable. Using STARTTLS.");
+			return false;
+		}
+		XMPPTCPConnectionConfiguration conf = newConfigurationBuilder(null).setXmppDomain(serviceName)
+				.setHostAddress(endpoint.getAddress()).setPort(endpoint.getPort()).setCustomSSLContext(sslContext)
+				.setSocketFactory(new JabberDirectTlsSocketFactory(sslContext, serviceName, !this.acceptAllCerts))
+				.build();
+		this.connection = newConnection(conf);
+		LOGGER.info("Trying to connect to XMPP on /" + serviceName + " with direct TLS via " + endpoint);
+		try {
+			this.connection.connect();
+		} catch (XMPPException | SmackException | IOException e) {
+			// e.g. the port is closed or the TLS handshake failed
+			LOGGER.info("Direct TLS connection failed. Using STARTTLS: " + e.getMessage());
+		}
+		if (this.connection.isConnected()) {
+			resolver.succeeded(srvName, endpoint);
+			return true;
+		}
+		resolver.failed(srvName, endpoint);
+		return false;
 	}
 
 	/**
-	 * Transparently retries the connection attempt with legacy SSL if original attempt fails.
+	 * Transparently retries the connection attempt with the other TLS mode if the original attempt fails.
 	 * 
+	 * @param mode the TLS mode to retry with
 	 * @param originalException the exception of the original attempt (may be null)
 	 * 
-	 *            See JENKINS-6863
-	 * @throws InterruptedException 
+	 * @throws XMPPException if the retry fails, too
 	 */
-	private void retryConnectionWithLegacySSL(final XMPPTCPConnectionConfiguration.Builder cfg,
-			@Nullable Exception originalException) throws XMPPException, SmackException, InterruptedException {
+	private void retryConnection(final XMPPTCPConnectionConfiguration.Builder cfg, SSLContext sslContext,
+			JabberTlsModes.Mode mode, @Nullable Exception originalException) throws XMPPException, SmackException, InterruptedException {
 		try {
-			LOGGER.info("Retrying connection with legacy SSL");
-			cfg.setSocketFactory(SSLSocketFactory.getDefault());
-			this.connection = new XMPPTCPConnection(cfg.build());
+			LOGGER.info("Retrying connection with " + (mode == JabberTlsModes.Mode.LEGACY_SSL ? "legacy SSL" : "STARTTLS"));
+			this.connection = newConnection(mode.configure(cfg, sslContext));
 			this.connection.connect();
 		} catch (XMPPException e) {
 			if (originalException != null) {
-				// use the original connection exception as legacy SSL should only
+				// use the original connection exception as the other mode should only
 				// be a fallback
-				LOGGER.warning("Retrying with legacy SSL failed: " + e.getMessage());
-				throw new SmackException.SmackWrappedException("Exception of original (without legacy SSL) connection attempt",
+				LOGGER.warning("Retrying with " + mode + " failed: " + e.getMessage());
+				throw new SmackException.SmackWrappedException("Exception of original (" + mode.other() + ") connection attempt",
 						originalException);
 			} else {
 				throw new SmackException.SmackWrappedException(e);
@@ -614,7 +1549,8 @@ class JabberIMConnection extends AbstractIMConnection {
 	}
 
 	/**
-	 * Listens on the connection for private chat requests.
+	 * Listens on the connection for private messages and routes the ones which pass the {@link #privateChatFilter} to
+	 * their chat. Smack's own chat listeners aren't used, as they would bypass the filter.
 	 */
 	private void listenForPrivateChats() {
 		// PacketFilter filter = new AndFilter(new MessageTypeFilter(Message.Type.chat),
@@ -624,96 +1560,238 @@ class JabberIMConnection extends AbstractIMConnection {
 		// this doesn't matter anyway.
 
 		// TODO: ToContainsFilter which was in Smack 4.0.0!?
-		StanzaFilter filter = MessageTypeFilter.CHAT;
+		StanzaFilter filter = new AndFilter(MessageTypeFilter.CHAT, this.privateChatFilter);
 
 		StanzaListener listener = new PrivateChatListener();
 		this.connection.addSyncStanzaListener(listener, filter);
 	}
 
+	/**
+	 * Listens on an additional session for private messages, e.g. replies to a notification which was sent via that
+	 * session. They go to the same chat as the ones received by the main connection, so the answers are sent from
+	 * the main resource.
+	 */
+	private void listenForAdditionalSessionChats(AbstractXMPPConnection session) {
+		StanzaFilter filter = new AndFilter(MessageTypeFilter.CHAT, this.privateChatFilter);
+		session.addSyncStanzaListener(new AdditionalSessionChatListener(), filter);
+	}
+
+	/**
+	 * Listens on the connection for the messages of all group chats and routes the ones which pass the
+	 * {@link #groupChatFilter} to their chat. Smack's own per-room listeners would see every message of a room.
+	 * Synchronous, so the commands of a user reach the dispatcher in the order they were sent; the listener only hands
+	 * them over and doesn't block the connection.
+	 */
+	private void listenForGroupChatMessages() {
+		StanzaFilter filter = new AndFilter(MessageTypeFilter.GROUPCHAT, this.groupChatFilter);
+		this.connection.addSyncStanzaListener(new GroupChatListener(), filter);
+	}
+
+	/**
+	 * Returns the joined group chat, joining it if necessary.
+	 *
+	 * @return null if the group chat is still being joined
+	 */
 	private MultiUserChat getOrCreateGroupChat(GroupChatIMMessageTarget chat) throws IMException {
 		EntityBareJid mucJid = JidCreate.entityBareFromUnescapedOrThrowUnchecked(chat.getName());
 
-		WeakReference<MultiUserChat> ref = groupChatCache.get(mucJid);
-		MultiUserChat groupChat = null;
-		if (ref != null) {
-			groupChat = ref.get();
+		JabberChatSession<MultiUserChat> session = groupChatCache.get(mucJid);
+		if (session != null) {
+			return session.getChat();
 		}
 
-		if (groupChat == null) {
-			groupChat = MultiUserChatManager.getInstanceFor(connection).getMultiUserChat(mucJid);
-			try {
-				groupChat.join(this.groupChatNick, chat.getPassword());
-			} catch (InterruptedException | SmackException | XMPPException e) {
-				LOGGER.warning("Cannot join group chat '" + chat + "'. Exception:\n" + ExceptionHelper.dump(e));
-				throw new IMException(e);
-			}
+		if (this.pendingJoins.containsKey(mucJid)) {
+			// a new join has been started since awaitJoin
+			return null;
+		}
 
-			// TODO This could be avoided by simply requesting *no* history from the MUC on join.
-			// get rid of old messages:
-			try {
-				while (groupChat.pollMessage() != null) {
-				}
-			} catch (MucNotJoinedException e) {
-				throw new IMException(e);
-			}
+		return joinGroupChat(mucJid, chat);
+	}
 
-			this.bots.add(new Bot(new JabberMultiUserChat(groupChat, this, !chat.isNotificationOnly()),
-					this.groupChatNick.toString(), this.desc.getHost(), this.botCommandPrefix, this.authentication));
+	/**
+	 * Waits for a pending join of the given group chat. Must not be called with the {@link #connectionLock} held, as
+	 * the join needs the connection.
+	 *
+	 * @throws IMException if the join failed or didn't complete within {@link #JOIN_TIMEOUT_SECONDS}
+	 */
+	private void awaitJoin(GroupChatIMMessageTarget chat) throws IMException {
+		BareJid mucJid = JidCreate.entityBareFromUnescapedOrThrowUnchecked(chat.getName());
+		Future<MultiUserChat> pendingJoin = this.pendingJoins.get(mucJid);
+		if (pendingJoin == null) {
+			return;
+		}
+		try {
+			pendingJoin.get(JOIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		} catch (CancellationException e) {
+			// the group chat has been left or the connection closed, deliver() finds out which
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IMException(e);
+		} catch (ExecutionException e) {
+			throw new IMException(e.getCause());
+		} catch (TimeoutException e) {
+			throw new IMException("Group chat " + chat.getName() + " not joined within " + JOIN_TIMEOUT_SECONDS
+					+ " seconds");
+		}
+	}
 
-			groupChatCache.put(mucJid, new WeakReference<MultiUserChat>(groupChat));
+	private MultiUserChat joinGroupChat(EntityBareJid mucJid, GroupChatIMMessageTarget chat) throws IMException {
+		MultiUserChat groupChat = MultiUserChatManager.getInstanceFor(connection).getMultiUserChat(mucJid);
+		// Request no history: old messages would only be discarded anyway.
+		MucEnterConfiguration enterConfiguration = groupChat.getEnterConfigurationBuilder(this.groupChatNick)
+				.withPassword(chat.getPassword()).requestNoHistory().build();
+		try {
+			groupChat.join(enterConfiguration);
+		} catch (InterruptedException | SmackException | XMPPException e) {
+			LOGGER.warning("Cannot join group chat '" + chat + "'. Exception:\n" + ExceptionHelper.dump(e));
+			throw new IMException(e);
 		}
+
+		JabberChatSession<MultiUserChat> session = new JabberChatSession<MultiUserChat>(groupChat,
+				new JabberMultiUserChat(groupChat, this, !chat.isNotificationOnly()));
+		session.attach(this.dispatcher);
+		groupChatCache.put(mucJid, session);
 		return groupChat;
 	}
 
+	/**
+	 * Returns the private chat with the given partner, starting it if necessary. Chats are created under the lock of
+	 * the {@link #chatCache}, so concurrent callers - the sender threads and the Smack listeners - share one chat.
+	 *
+	 * @param msg a message of the chat partner, which has passed the {@link #privateChatFilter}, to pass to the chat.
+	 *            May be null.
+	 */
 	private Chat getOrCreatePrivateChat(Jid chatPartnerJid, Message msg) {
 		EntityJid chatPartner = chatPartnerJid.asEntityJidOrThrow();
-		// use possibly existing chat
-		WeakReference<Chat> wr = chatCache.get(chatPartner);
-		if (wr != null) {
-			Chat c = wr.get();
-			if (c != null) {
-				return c;
-			}
-		}
-
-		final Chat chat = ChatManager.getInstanceFor(this.connection).createChat(chatPartner, null);
-		Bot bot = new Bot(new JabberChat(chat, this), this.groupChatNick.toString(), this.desc.getHost(), this.botCommandPrefix,
-				this.authentication);
-		this.bots.add(bot);
+		PrivateChatFactory factory = new PrivateChatFactory();
+		JabberChatSession<Chat> session = chatCache.computeIfAbsent(chatPartner, factory);
 
 		if (msg != null) {
-			// replay original message:
-			bot.onMessage(new JabberMessage(msg, isAuthorized(msg.getFrom().asBareJid())));
+			if (session == factory.created) {
+				// replay original message:
+				factory.listener.onMessage(new JabberMessage(msg, isAuthorized(msg.getFrom().asBareJid())));
+			} else {
+				((JabberChat) session.getIMChat()).processMessage(msg);
+			}
 		}
-		chatCache.put(chatPartner, new WeakReference<Chat>(chat));
-		return chat;
+		return session.getChat();
 	}
 
+	/**
+	 * Queues the message for sending and returns immediately. The message is delivered by the sender thread of the
+	 * {@link JabberOutboundQueue}.
+	 */
 	@Override
 	public void send(final IMMessageTarget target, final String text) throws IMException {
 		Assert.notNull(target, "Parameter 'target' must not be null.");
 		Assert.notNull(text, "Parameter 'text' must not be null.");
+		this.outboundQueue.enqueue(target, text);
+	}
+
+	/**
+	 * Returns the number of outbound messages which are waiting to be sent.
+	 */
+	int getOutboundQueueDepth() {
+		return this.outboundQueue.getDepth();
+	}
+
+	/**
+	 * Actually sends a message. Called from the sender threads of the {@link JabberOutboundQueue} only, so it's safe
+	 * to wait for the lock here.
+	 */
+	private JabberOutboundQueue.Delivery deliver(final JabberOutboundQueue.Message message) throws IMException {
+		if (message.getTarget() instanceof GroupChatIMMessageTarget) {
+			awaitJoin((GroupChatIMMessageTarget) message.getTarget());
+		}
+		this.connectionLock.readLock().lock();
 		try {
-			// prevent long waits for lock
-			if (!tryLock(5, TimeUnit.SECONDS)) {
-				return;
+			if (this.connection == null) {
+				return JabberOutboundQueue.Delivery.NOT_SENT;
 			}
-			try {
-				if (target instanceof GroupChatIMMessageTarget) {
-					getOrCreateGroupChat((GroupChatIMMessageTarget) target).sendMessage(text);
-				} else {
-					Jid targetJid = JidCreate.fromOrThrowUnchecked(target.toString());
-					final Chat chat = getOrCreatePrivateChat(targetJid, null);
-					chat.sendMessage(text);
+			IMMessageTarget target = message.getTarget();
+			boolean awaitingAck;
+			if (target instanceof GroupChatIMMessageTarget) {
+				MultiUserChat groupChat = getOrCreateGroupChat((GroupChatIMMessageTarget) target);
+				if (groupChat == null) {
+					return JabberOutboundQueue.Delivery.NOT_SENT;
 				}
-			} catch (SmackException.NotConnectedException e) {
-				LOGGER.warning(ExceptionHelper.dump(e));
-			} finally {
-				unlock();
+				Message stanza = this.connection.getStanzaFactory().buildMessageStanza().to(groupChat.getRoom())
+						.ofType(Message.Type.groupchat).setBody(message.getText()).build();
+				awaitingAck = expectAcknowledgement(this.connection, stanza, message);
+				this.connection.sendStanza(stanza);
+			} else {
+				Jid targetJid = JidCreate.fromOrThrowUnchecked(target.toString());
+				AbstractXMPPConnection session = this.shards != null
+						? this.shards.sessionFor(JabberOutboundQueue.keyOf(target))
+						: null;
+				if (session != null) {
+					JabberOutboundQueue.Delivery delivery = sendViaSession(session, targetJid, message);
+					if (delivery != null) {
+						return delivery;
+					}
+				}
+				final Chat chat = getOrCreatePrivateChat(targetJid, null);
+				Message stanza = this.connection.getStanzaFactory().buildMessageStanza().setBody(message.getText())
+						.build();
+				awaitingAck = expectAcknowledgement(this.connection, stanza, message);
+				chat.sendMessage(stanza);
 			}
+			return awaitingAck ? JabberOutboundQueue.Delivery.AWAITING_ACK : JabberOutboundQueue.Delivery.SENT;
+		} catch (SmackException.NotConnectedException e) {
+			LOGGER.warning(ExceptionHelper.dump(e));
+			return JabberOutboundQueue.Delivery.NOT_SENT;
 		} catch (InterruptedException e) {
 			Thread.currentThread().interrupt();
-			// ignore
+			return JabberOutboundQueue.Delivery.NOT_SENT;
+		} finally {
+			this.connectionLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Sends a private message via one of the additional sessions.
+	 *
+	 * @return the outcome or null if the session isn't usable, in which case the main connection should be used
+	 */
+	@Nullable
+	private JabberOutboundQueue.Delivery sendViaSession(AbstractXMPPConnection session, Jid targetJid,
+			JabberOutboundQueue.Message message) throws InterruptedException {
+		Message stanza = session.getStanzaFactory().buildMessageStanza().to(targetJid).ofType(Message.Type.chat)
+				.setBody(message.getText()).build();
+		boolean awaitingAck = expectAcknowledgement(session, stanza, message);
+		try {
+			session.sendStanza(stanza);
+		} catch (SmackException.NotConnectedException e) {
+			LOGGER.fine("Additional session not connected. Sending via main connection: " + e.getMessage());
+			return null;
+		}
+		return awaitingAck ? JabberOutboundQueue.Delivery.AWAITING_ACK : JabberOutboundQueue.Delivery.SENT;
+	}
+
+	/**
+	 * If stream management is enabled, the outbox entry of the message is only marked as done when the server
+	 * acknowledges the stanza.
+	 *
+	 * @return true if an acknowledgement is expected for the stanza
+	 */
+	private boolean expectAcknowledgement(AbstractXMPPConnection session, Message stanza,
+			final JabberOutboundQueue.Message message) {
+		if (this.outbox == null || message.getOutboxIds().length == 0 || !(session instanceof XMPPTCPConnection)
+				|| !((XMPPTCPConnection) session).isSmEnabled()) {
+			return false;
+		}
+		try {
+			((XMPPTCPConnection) session).addStanzaIdAcknowledgedListener(stanza.getStanzaId(), new StanzaListener() {
+				@Override
+				public void processStanza(Stanza packet) {
+					for (long outboxId : message.getOutboxIds()) {
+						outbox.markDone(outboxId);
+					}
+				}
+			});
+			return true;
+		} catch (StreamManagementNotEnabledException e) {
+			return false;
 		}
 	}
 
@@ -739,7 +1817,7 @@ class JabberIMConnection extends AbstractIMConnection {
 
 		try {
 			// prevent long waits for lock
-			if (!tryLock(5, TimeUnit.SECONDS)) {
+			if (!this.connectionLock.readLock().tryLock(5, TimeUnit.SECONDS)) {
 				return;
 			}
 			try {
@@ -775,7 +1853,7 @@ class JabberIMConnection extends AbstractIMConnection {
 			} catch (SmackException.NotConnectedException e) {
 				LOGGER.warning(ExceptionHelper.dump(e));
 			} finally {
-				unlock();
+				this.connectionLock.readLock().unlock();
 			}
 		} catch (InterruptedException e) {
 			Thread.currentThread().interrupt();
@@ -785,12 +1863,7 @@ class JabberIMConnection extends AbstractIMConnection {
 
 	@Override
 	public boolean isConnected() {
-		lock();
-		try {
-			return this.connection != null && this.connection.isAuthenticated();
-		} finally {
-			unlock();
-		}
+		return this.state.get().isConnected();
 	}
 
 	public boolean isAuthorized(BareJid bareAddress) {
@@ -805,37 +1878,15 @@ class JabberIMConnection extends AbstractIMConnection {
 		return authorized;
 	}
 
-	private final Map<IMConnectionListener, ConnectionListener> listeners = new ConcurrentHashMap<IMConnectionListener, ConnectionListener>();
-
 	@Override
 	public void addConnectionListener(final IMConnectionListener listener) {
-		lock();
-		try {
-			ConnectionListener l = new ConnectionListener() {
-				@Override
-				public void connectionClosedOnError(Exception e) {
-					listener.connectionBroken(e);
-				}
-			};
-			listeners.put(listener, l);
-			this.connection.addConnectionListener(l);
-		} finally {
-			unlock();
-		}
+		this.listeners.add(listener);
 	}
 
 	@Override
 	public void removeConnectionListener(IMConnectionListener listener) {
-		lock();
-		try {
-			ConnectionListener l = this.listeners.remove(listener);
-			if (l != null) {
-				this.connection.removeConnectionListener(l);
-			} else {
-				LOGGER.warning("Connection listener " + listener + " not found.");
-			}
-		} finally {
-			unlock();
+		if (!this.listeners.remove(listener)) {
+			LOGGER.warning("Connection listener " + listener + " not found.");
 		}
 	}
 
@@ -847,22 +1898,70 @@ class JabberIMConnection extends AbstractIMConnection {
 		@Override
 		public void processStanza(Stanza packet) {
 			if (packet instanceof Message) {
+				// delayed and bodyless messages have already been dropped by the privateChatFilter
 				Message m = (Message) packet;
+				LOGGER.fine("Message from " + m.getFrom() + " : " + m.getBody());
+				getOrCreatePrivateChat(m.getFrom(), m);
+			}
+		}
+	};
 
-				for (ExtensionElement ext : m.getExtensions()) {
-					if (ext instanceof DelayInformation) {
-						// ignore delayed messages
-						return;
-					}
-				}
+	private final class AdditionalSessionChatListener implements StanzaListener {
+
+		@Override
+		public void processStanza(Stanza packet) {
+			if (connection == null) {
+				// closed
+				return;
+			}
+			Message m = (Message) packet;
+			getOrCreatePrivateChat(m.getFrom(), m);
+		}
+	}
 
-				if (m.getBody() != null) {
-					LOGGER.fine("Message from " + m.getFrom() + " : " + m.getBody());
+	private final class PrivateChatFactory implements JabberSessionCache.Factory<EntityJid, JabberChatSession<Chat>> {
 
-					final Jid chatPartner = m.getFrom();
-					getOrCreatePrivateChat(chatPartner, m);
-				}
+		private JabberChatSession<Chat> created;
+		private IMMessageListener listener;
+
+		@Override
+		public JabberChatSession<Chat> create(EntityJid chatPartner) {
+			Chat chat = ChatManager.getInstanceFor(connection).createChat(chatPartner, null);
+			this.created = new JabberChatSession<Chat>(chat, new JabberChat(chat, JabberIMConnection.this));
+			this.listener = this.created.attach(dispatcher);
+			return this.created;
+		}
+	}
+
+	private final class GroupChatListener implements StanzaListener {
+
+		@Override
+		public void processStanza(Stanza packet) {
+			JabberChatSession<MultiUserChat> session = groupChatCache.get(packet.getFrom().asBareJid());
+			if (session != null) {
+				((JabberMultiUserChat) session.getIMChat()).processMessage((Message) packet);
 			}
 		}
-	};
+	}
+
+	/**
+	 * Counts the joins of all batches started for one connection - on connect and by
+	 * {@link #applyConfiguration(JabberPublisherDescriptor)} - so the connection only becomes READY once the joins of
+	 * all of them have completed.
+	 */
+	private final class JoinBatches {
+		private int remaining;
+
+		synchronized void started(int joins) {
+			this.remaining += joins;
+			setState(JabberConnectionState.JOINING);
+		}
+
+		synchronized void completed() {
+			if (--this.remaining == 0 && joinBatches == this
+					&& setState(JabberConnectionState.JOINING, JabberConnectionState.READY)) {
+				LOGGER.info("All group chat joins completed");
+			}
+		}
+	}
 }
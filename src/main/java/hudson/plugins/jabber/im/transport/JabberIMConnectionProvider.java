@@ -22,6 +22,7 @@
  */
 package hudson.plugins.jabber.im.transport;
 
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -32,6 +33,9 @@ import hudson.plugins.im.IMPublisherDescriptor;
 
 /**
  * Jabber implementation of an {@link IMConnectionProvider}.
+ * <p>
+ * Connection attempts are spread out by a {@link JabberReconnectBackoff}, on top of the retry loop of the
+ * instant-messaging plugin.
  * 
  * @author Uwe Schaefer
  * @author kutzi
@@ -41,22 +45,79 @@ final class JabberIMConnectionProvider extends IMConnectionProvider {
 
 	private static final Logger LOGGER = Logger.getLogger(JabberIMConnectionProvider.class.getName());
 
-	static final synchronized IMConnectionProvider getInstance() {
+	private static final JabberReconnectBackoff BACKOFF = new JabberReconnectBackoff();
+
+	static final IMConnectionProvider getInstance() {
 		return INSTANCE;
 	}
 
 	static final synchronized void setDesc(IMPublisherDescriptor desc) throws IMException {
 		INSTANCE.setDescriptor(desc);
+		BACKOFF.reset();
+		JabberSslContexts.reset();
 		INSTANCE.releaseConnection();
 	}
 
+	/**
+	 * Applies a changed configuration which doesn't affect the credentials or the endpoint to the current
+	 * connection, without reconnecting.
+	 *
+	 * @return false if there is no connection to update. The caller has to fall back to {@link #setDesc}.
+	 */
+	static final synchronized boolean applyDesc(JabberPublisherDescriptor desc) {
+		IMConnection imConnection = INSTANCE.currentConnection();
+		if (!(imConnection instanceof JabberIMConnection)) {
+			return false;
+		}
+		((JabberIMConnection) imConnection).applyConfiguration(desc);
+		return true;
+	}
+
 	private JabberIMConnectionProvider() {
 		super();
 		init();
 	}
 
+	/**
+	 * Waits according to the backoff before actually connecting. The wait happens outside of the lock of this
+	 * provider, so it doesn't block callers which only want the current connection.
+	 */
 	@Override
-	public synchronized IMConnection createConnection() throws IMException {
+	public IMConnection createConnection() throws IMException {
+		long delay = BACKOFF.nextDelayMillis();
+		if (delay < 0) {
+			JabberMetrics.increment("reconnect.rejected");
+			throw new IMException("Not connecting: too many failed attempts, waiting for the circuit to close ("
+					+ BACKOFF.getFailures() + " consecutive failures)");
+		}
+		if (delay > 0) {
+			LOGGER.info("Waiting " + delay + " ms before connecting");
+			try {
+				TimeUnit.MILLISECONDS.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IMException(e);
+			}
+			JabberMetrics.counter("reconnect.wait.millis").addAndGet(delay);
+		}
+		JabberMetrics.increment("reconnect.attempts");
+		boolean success = false;
+		try {
+			IMConnection imConnection = connect();
+			success = true;
+			return imConnection;
+		} finally {
+			if (success) {
+				BACKOFF.onSuccess();
+				JabberMetrics.increment("reconnect.successes");
+			} else {
+				BACKOFF.onFailure();
+				JabberMetrics.increment("reconnect.failures");
+			}
+		}
+	}
+
+	private synchronized IMConnection connect() throws IMException {
 		releaseConnection();
 
 		if (getDescriptor() == null) {
@@ -72,7 +133,16 @@ final class JabberIMConnectionProvider extends IMConnectionProvider {
 			LOGGER.log(Level.WARNING, "exception", e);
 			throw e;
 		}
-		if (imConnection.connect()) {
+		boolean connected = false;
+		try {
+			connected = imConnection.connect();
+		} finally {
+			if (!connected) {
+				// stops the sender threads and the scheduler, which the connection started in its constructor
+				imConnection.close();
+			}
+		}
+		if (connected) {
 			return imConnection;
 		}
 		throw new IMException("Connection failed");
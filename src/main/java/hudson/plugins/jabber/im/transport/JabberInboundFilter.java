@@ -0,0 +1,146 @@
+/**
+ * Copyright (c) 2026 the original author or authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE
+ */
+package hudson.plugins.jabber.im.transport;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import org.jivesoftware.smack.filter.StanzaFilter;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smackx.delay.packet.DelayInformation;
+import org.jxmpp.jid.BareJid;
+import org.jxmpp.jid.Jid;
+import org.jxmpp.jid.parts.Resourcepart;
+
+/**
+ * Drops inbound messages the bot has no use for, before anything is allocated for them.
+ * <p>
+ * Runs as a {@link StanzaFilter} on the connection, which is the only place the messages reach the chats from, so
+ * every inbound message is checked in this order and dropped at the first matching rule:
+ * <ol>
+ * <li>delayed messages, e.g. the history of a group chat or offline messages</li>
+ * <li>our own messages: in group chats the echo of our nick, in private chats every message from our own bare JID,
+ * i.e. also from other clients logged in with the same account</li>
+ * <li>messages without a body, e.g. chat state notifications</li>
+ * <li>group chat messages which are no bot command, i.e. neither start with the command prefix nor address the bot
+ * as {@code nick:}</li>
+ * </ol>
+ * Each rule counts the dropped messages as {@code inbound.<name>.dropped.<rule>} in {@link JabberMetrics}; messages
+ * which pass are counted as {@code inbound.<name>.accepted}.
+ */
+final class JabberInboundFilter implements StanzaFilter {
+
+	@Nullable
+	private final Resourcepart roomNick;
+	@Nullable
+	private final BareJid self;
+	private final boolean commandsOnly;
+	private final String addressedPrefix;
+	private volatile String commandPrefix;
+
+	private final AtomicLong delayed;
+	private final AtomicLong selfEcho;
+	private final AtomicLong bodyless;
+	private final AtomicLong notCommand;
+	private final AtomicLong accepted;
+
+	private JabberInboundFilter(String name, @Nullable Resourcepart roomNick, @Nullable BareJid self,
+			boolean commandsOnly, String commandPrefix) {
+		this.roomNick = roomNick;
+		this.self = self;
+		this.commandsOnly = commandsOnly;
+		this.addressedPrefix = roomNick != null ? roomNick + ":" : null;
+		this.commandPrefix = commandPrefix;
+		this.delayed = JabberMetrics.counter("inbound." + name + ".dropped.delayed");
+		this.selfEcho = JabberMetrics.counter("inbound." + name + ".dropped.self");
+		this.bodyless = JabberMetrics.counter("inbound." + name + ".dropped.bodyless");
+		this.notCommand = JabberMetrics.counter("inbound." + name + ".dropped.notcommand");
+		this.accepted = JabberMetrics.counter("inbound." + name + ".accepted");
+	}
+
+	/**
+	 * Returns the filter for group chat messages, which only lets bot commands pass.
+	 *
+	 * @param roomNick our nick in the group chats
+	 */
+	static JabberInboundFilter forGroupChats(Resourcepart roomNick, String commandPrefix) {
+		return new JabberInboundFilter("groupchat", roomNick, null, true, commandPrefix);
+	}
+
+	/**
+	 * Returns the filter for private messages. All of them may be commands, so the prefix isn't checked.
+	 *
+	 * @param self our own bare JID or null if not known yet
+	 */
+	static JabberInboundFilter forPrivateChats(@Nullable BareJid self) {
+		return new JabberInboundFilter("chat", null, self, false, null);
+	}
+
+	void setCommandPrefix(String commandPrefix) {
+		this.commandPrefix = commandPrefix;
+	}
+
+	@Override
+	public boolean accept(Stanza stanza) {
+		if (!(stanza instanceof Message)) {
+			return false;
+		}
+		Message message = (Message) stanza;
+		if (message.hasExtension(DelayInformation.ELEMENT, DelayInformation.NAMESPACE)) {
+			this.delayed.incrementAndGet();
+			return false;
+		}
+		if (isFromSelf(message.getFrom())) {
+			this.selfEcho.incrementAndGet();
+			return false;
+		}
+		String body = message.getBody();
+		if (body == null) {
+			this.bodyless.incrementAndGet();
+			return false;
+		}
+		if (this.commandsOnly && !body.startsWith(this.commandPrefix) && !body.startsWith(this.addressedPrefix)) {
+			this.notCommand.incrementAndGet();
+			return false;
+		}
+		this.accepted.incrementAndGet();
+		return true;
+	}
+
+	private boolean isFromSelf(@Nullable Jid from) {
+		if (from == null) {
+			return false;
+		}
+		if (this.roomNick != null) {
+			return this.roomNick.equals(from.getResourceOrNull());
+		}
+		return this.self != null && this.self.equals(from.asBareJid());
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + (this.commandsOnly ? ": commands only" : "");
+	}
+}
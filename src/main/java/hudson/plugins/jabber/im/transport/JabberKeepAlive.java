@@ -0,0 +1,172 @@
+/**
+ * Copyright (c) 2026 the original author or authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE
+ */
+package hudson.plugins.jabber.im.transport;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.jivesoftware.smack.SmackException.NotConnectedException;
+import org.jivesoftware.smack.packet.Nonza;
+import org.jivesoftware.smack.packet.XmlEnvironment;
+import org.jivesoftware.smack.tcp.XMPPTCPConnection;
+import org.jivesoftware.smackx.ping.PingManager;
+
+/**
+ * Keeps an XMPP connection alive and detects dead (e.g. half-open) connections.
+ * <p>
+ * The connection is only pinged if nothing has been received for {@code idleSeconds}; any incoming stanza proves that
+ * the connection is alive. A ping waits for the server's pong; if it doesn't arrive within {@code pongTimeoutMillis},
+ * the connection is considered dead and {@link Listener#connectionDead(String)} is called.
+ * <p>
+ * Optionally, a single whitespace character is sent instead of a ping. This is cheaper for client and server, but
+ * only detects connections which fail on write. To detect half-open connections nonetheless, a real ping is sent
+ * once the connection has been idle for {@link #WHITESPACE_PINGS} intervals.
+ * <p>
+ * The round-trip time of each answered ping is recorded in {@link JabberRoundTripTimes}.
+ */
+final class JabberKeepAlive {
+
+	private static final Logger LOGGER = Logger.getLogger(JabberKeepAlive.class.getName());
+
+	static final int WHITESPACE_PINGS = 3;
+
+	/**
+	 * Notified when the connection is found to be dead.
+	 */
+	interface Listener {
+		void connectionDead(String reason);
+	}
+
+	/**
+	 * A single whitespace character between stanzas, as allowed by RFC 6120 section 4.6.1.
+	 */
+	private static final Nonza WHITESPACE = new Nonza() {
+		@Override
+		public String getNamespace() {
+			return null;
+		}
+
+		@Override
+		public String getElementName() {
+			return null;
+		}
+
+		@Override
+		public CharSequence toXML(XmlEnvironment xmlEnvironment) {
+			return " ";
+		}
+	};
+
+	private final XMPPTCPConnection connection;
+	private final long idleMillis;
+	private final long pongTimeoutMillis;
+	private final boolean whitespace;
+	private final Listener listener;
+	private final JabberRoundTripTimes roundTripTimes;
+	private ScheduledFuture<?> task;
+	private long lastWhitespace;
+
+	JabberKeepAlive(XMPPTCPConnection connection, int idleSeconds, long pongTimeoutMillis, boolean whitespace,
+			JabberRoundTripTimes roundTripTimes, Listener listener) {
+		this.connection = connection;
+		this.idleMillis = TimeUnit.SECONDS.toMillis(idleSeconds);
+		this.pongTimeoutMillis = pongTimeoutMillis;
+		this.whitespace = whitespace;
+		this.listener = listener;
+		this.roundTripTimes = roundTripTimes;
+		// we do the pinging ourselves
+		PingManager.getInstanceFor(connection).setPingInterval(-1);
+	}
+
+	/**
+	 * Starts checking the connection on the given scheduler.
+	 */
+	synchronized void start(ScheduledExecutorService scheduler) {
+		if (this.task != null) {
+			return;
+		}
+		// check often enough so an idle connection is pinged no later than a few seconds after the idle time
+		long checkMillis = Math.max(1000, Math.min(this.idleMillis / 4, 15000));
+		this.task = scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				check();
+			}
+		}, checkMillis, checkMillis, TimeUnit.MILLISECONDS);
+	}
+
+	synchronized void stop() {
+		if (this.task != null) {
+			this.task.cancel(false);
+			this.task = null;
+		}
+	}
+
+	/**
+	 * Returns the number of milliseconds since the last stanza was received.
+	 */
+	long getIdleMillis() {
+		return System.currentTimeMillis() - this.connection.getLastStanzaReceived();
+	}
+
+	private void check() {
+		if (!this.connection.isAuthenticated()) {
+			return;
+		}
+		long idle = getIdleMillis();
+		if (idle < this.idleMillis) {
+			return;
+		}
+		try {
+			if (this.whitespace && idle < WHITESPACE_PINGS * this.idleMillis) {
+				long now = System.currentTimeMillis();
+				if (now - this.lastWhitespace >= this.idleMillis) {
+					this.connection.sendNonza(WHITESPACE);
+					this.lastWhitespace = now;
+					JabberMetrics.increment("keepalive.whitespace");
+				}
+				return;
+			}
+			JabberMetrics.increment("keepalive.pings");
+			long start = System.nanoTime();
+			if (!PingManager.getInstanceFor(this.connection).pingMyServer(false, this.pongTimeoutMillis)) {
+				JabberMetrics.increment("keepalive.timeouts");
+				dead("No response to ping within " + this.pongTimeoutMillis + " ms");
+				return;
+			}
+			this.roundTripTimes.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		} catch (NotConnectedException e) {
+			dead("Keep-alive failed: " + e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void dead(String reason) {
+		LOGGER.warning("XMPP connection seems to be dead. " + reason);
+		stop();
+		this.listener.connectionDead(reason);
+	}
+}
@@ -0,0 +1,267 @@
+/**
+ * Copyright (c) 2026 the original author or authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE
+ */
+package hudson.plugins.jabber.im.transport;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import hudson.plugins.im.IMMessageTarget;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+/**
+ * Merges messages for the same target which arrive within a short window into one message.
+ * <p>
+ * The first message for a target opens a batch which is flushed after the configured window, or as soon as it
+ * contains the maximum number of messages. Messages in a batch are separated by line breaks.
+ * <p>
+ * The merged message is handed over without blocking, so a single target which can't take messages doesn't hold up
+ * the flushes of all others. A merged message which isn't taken is retried after the window, in order with later
+ * messages for its target, until the timeout is over.
+ */
+final class JabberMessageCoalescer {
+
+	/**
+	 * Receives the merged messages.
+	 */
+	interface Flusher {
+		/**
+		 * Takes a merged message, without blocking.
+		 *
+		 * @return false if the message can't be taken right now
+		 */
+		boolean flush(IMMessageTarget target, String text, long[] outboxIds);
+
+		/**
+		 * Called for a merged message which couldn't be handed over within the timeout.
+		 */
+		void failed(IMMessageTarget target, String text, long[] outboxIds);
+	}
+
+	private final long windowMillis;
+	private final int maxMessages;
+	private final long timeoutNanos;
+	private final Flusher flusher;
+	private final ScheduledExecutorService scheduler;
+
+	/**
+	 * Open batches by target key. Guarded by itself.
+	 */
+	private final Map<String, Batch> batches = new HashMap<>();
+
+	/**
+	 * Merged messages which haven't been taken yet, by target key, in order. Guarded by {@link #batches}.
+	 */
+	private final Map<String, Deque<Merged>> overflow = new HashMap<>();
+
+	/**
+	 * @param timeoutMillis how long a merged message may wait to be taken before it fails
+	 */
+	JabberMessageCoalescer(long windowMillis, int maxMessages, long timeoutMillis, Flusher flusher) {
+		this.windowMillis = windowMillis;
+		this.maxMessages = maxMessages;
+		this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		this.flusher = flusher;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(
+				new NamingThreadFactory(new DaemonThreadFactory(), JabberMessageCoalescer.class.getSimpleName()));
+	}
+
+	/**
+	 * Adds a message to the batch of its target.
+	 *
+	 * @param outboxId the id of the {@link JabberOutbox} entry of the message or -1
+	 */
+	void add(IMMessageTarget target, String text, long outboxId) {
+		final String key = JabberOutboundQueue.keyOf(target);
+		Batch full = null;
+		synchronized (this.batches) {
+			Batch batch = this.batches.get(key);
+			if (batch == null) {
+				final Batch newBatch = new Batch(target);
+				newBatch.flushTask = this.scheduler.schedule(new Runnable() {
+					@Override
+					public void run() {
+						flushExpired(key, newBatch);
+					}
+				}, this.windowMillis, TimeUnit.MILLISECONDS);
+				this.batches.put(key, newBatch);
+				batch = newBatch;
+			}
+			batch.add(text, outboxId);
+			if (batch.texts.size() >= this.maxMessages) {
+				this.batches.remove(key);
+				batch.flushTask.cancel(false);
+				full = batch;
+			}
+		}
+		if (full != null) {
+			flush(key, full);
+		}
+	}
+
+	/**
+	 * Discards all open batches. Their messages stay in the outbox (if any).
+	 */
+	void shutdown() {
+		this.scheduler.shutdownNow();
+		synchronized (this.batches) {
+			this.batches.clear();
+			this.overflow.clear();
+		}
+	}
+
+	private void flushExpired(String key, Batch batch) {
+		synchronized (this.batches) {
+			if (this.batches.get(key) != batch) {
+				// already flushed because it was full
+				return;
+			}
+			this.batches.remove(key);
+		}
+		flush(key, batch);
+	}
+
+	private void flush(String key, Batch batch) {
+		StringBuilder text = new StringBuilder();
+		for (String t : batch.texts) {
+			if (text.length() > 0) {
+				text.append('\n');
+			}
+			text.append(t);
+		}
+		long[] outboxIds = new long[batch.outboxIds.size()];
+		for (int i = 0; i < outboxIds.length; i++) {
+			outboxIds[i] = batch.outboxIds.get(i);
+		}
+		JabberMetrics.increment("coalescing.batches");
+		JabberMetrics.counter("coalescing.messages").addAndGet(batch.texts.size());
+		Merged merged = new Merged(batch.target, text.toString(), outboxIds, System.nanoTime() + this.timeoutNanos);
+		synchronized (this.batches) {
+			Deque<Merged> waiting = this.overflow.get(key);
+			if (waiting != null) {
+				// keep the order behind the messages which are already waiting
+				waiting.addLast(merged);
+				return;
+			}
+		}
+		if (this.flusher.flush(merged.target, merged.text, merged.outboxIds)) {
+			return;
+		}
+		JabberMetrics.increment("coalescing.overflows");
+		synchronized (this.batches) {
+			Deque<Merged> waiting = new ArrayDeque<>();
+			waiting.add(merged);
+			this.overflow.put(key, waiting);
+		}
+		scheduleRetry(key);
+	}
+
+	private void scheduleRetry(final String key) {
+		try {
+			this.scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					retry(key);
+				}
+			}, this.windowMillis, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// shut down - the messages stay in the outbox (if any)
+		}
+	}
+
+	/**
+	 * Hands over the waiting messages of a target, in order, as far as they are taken.
+	 */
+	private void retry(String key) {
+		while (true) {
+			Merged merged;
+			synchronized (this.batches) {
+				Deque<Merged> waiting = this.overflow.get(key);
+				if (waiting == null) {
+					return;
+				}
+				merged = waiting.peekFirst();
+				if (merged == null) {
+					this.overflow.remove(key);
+					return;
+				}
+			}
+			boolean taken = this.flusher.flush(merged.target, merged.text, merged.outboxIds);
+			if (!taken && System.nanoTime() - merged.deadline < 0) {
+				scheduleRetry(key);
+				return;
+			}
+			if (!taken) {
+				this.flusher.failed(merged.target, merged.text, merged.outboxIds);
+			}
+			synchronized (this.batches) {
+				Deque<Merged> waiting = this.overflow.get(key);
+				if (waiting != null) {
+					waiting.pollFirst();
+				}
+			}
+		}
+	}
+
+	private static final class Merged {
+		private final IMMessageTarget target;
+		private final String text;
+		private final long[] outboxIds;
+		/** When handing it over fails for good, as {@link System#nanoTime()}. */
+		private final long deadline;
+
+		Merged(IMMessageTarget target, String text, long[] outboxIds, long deadline) {
+			this.target = target;
+			this.text = text;
+			this.outboxIds = outboxIds;
+			this.deadline = deadline;
+		}
+	}
+
+	private static final class Batch {
+		private final IMMessageTarget target;
+		private final List<String> texts = new ArrayList<>();
+		private final List<Long> outboxIds = new ArrayList<>();
+		private ScheduledFuture<?> flushTask;
+
+		Batch(IMMessageTarget target) {
+			this.target = target;
+		}
+
+		void add(String text, long outboxId) {
+			this.texts.add(text);
+			if (outboxId != -1) {
+				this.outboxIds.add(outboxId);
+			}
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright (c) 2026 the original author or authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE
+ */
+package hudson.plugins.jabber.im.transport;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Simple registry of named counters and gauges of the Jabber plugin.
+ * <p>
+ * Counters are cumulative since Jenkins start. Gauges are sampled when a snapshot is taken; registering a gauge
+ * under an existing name replaces the old one, so the current connection always wins.
+ */
+final class JabberMetrics {
+
+	/**
+	 * A value which is sampled on demand.
+	 */
+	interface Gauge {
+		long getValue();
+	}
+
+	private static final ConcurrentMap<String, AtomicLong> COUNTERS = new ConcurrentHashMap<>();
+	private static final ConcurrentMap<String, Gauge> GAUGES = new ConcurrentHashMap<>();
+
+	private JabberMetrics() {
+	}
+
+	/**
+	 * Returns the counter with the given name, creating it if needed.
+	 */
+	static AtomicLong counter(String name) {
+		AtomicLong counter = COUNTERS.get(name);
+		if (counter == null) {
+			AtomicLong newCounter = new AtomicLong();
+			counter = COUNTERS.putIfAbsent(name, newCounter);
+			if (counter == null) {
+				counter = newCounter;
+			}
+		}
+		return counter;
+	}
+
+	static void increment(String name) {
+		counter(name).incrementAndGet();
+	}
+
+	static void gauge(String name, Gauge gauge) {
+		GAUGES.put(name, gauge);
+	}
+
+	/**
+	 * Returns the current values of all counters and gauges, sorted by name.
+	 */
+	static SortedMap<String, Long> snapshot() {
+		SortedMap<String, Long> snapshot = new TreeMap<>();
+		for (Map.Entry<String, AtomicLong> e : COUNTERS.entrySet()) {
+			snapshot.put(e.getKey(), e.getValue().get());
+		}
+		for (Map.Entry<String, Gauge> e : GAUGES.entrySet()) {
+			snapshot.put(e.getKey(), e.getValue().getValue());
+		}
+		return snapshot;
+	}
+}
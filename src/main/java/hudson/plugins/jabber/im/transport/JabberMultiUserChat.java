@@ -22,10 +22,14 @@
  */
 package hudson.plugins.jabber.im.transport;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import hudson.plugins.im.IMChat;
 import hudson.plugins.im.IMException;
 import hudson.plugins.im.IMMessageListener;
 import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.packet.Message;
 import org.jivesoftware.smackx.muc.MultiUserChat;
 import org.jivesoftware.smackx.muc.Occupant;
 import org.jxmpp.jid.EntityFullJid;
@@ -42,6 +46,7 @@ public class JabberMultiUserChat implements IMChat {
 	private final MultiUserChat chat;
 	private final JabberIMConnection connection;
 	private final boolean commandsAccepted;
+	private final Map<IMMessageListener, JabberMUCMessageListenerAdapter> listeners = new ConcurrentHashMap<>();
 
 	public JabberMultiUserChat(MultiUserChat chat, JabberIMConnection connection, boolean commandsAccepted) {
 		this.chat = chat;
@@ -80,19 +85,35 @@ public class JabberMultiUserChat implements IMChat {
 		return null;
 	}
 
+	/**
+	 * Adds a listener for the messages of this room. The listener isn't registered on the Smack chat: the connection
+	 * filters the messages of all rooms and routes the remaining ones to {@link #processMessage(Message)}.
+	 */
 	public void addMessageListener(IMMessageListener listener) {
-		this.chat.addMessageListener(new JabberMUCMessageListenerAdapter(listener, this.connection, this.chat));
+		this.listeners.put(listener, new JabberMUCMessageListenerAdapter(listener, this.connection, this.chat));
 	}
 
 	public void removeMessageListener(IMMessageListener listener) {
-		// doesn't work out-of the box with Smack
-		// We would need to access the underlying connection to remove the packetListener
+		this.listeners.remove(listener);
+	}
+
+	/**
+	 * Passes a message of this room, which has already passed the {@link JabberInboundFilter}, to all listeners.
+	 */
+	void processMessage(Message message) {
+		for (JabberMUCMessageListenerAdapter adapter : this.listeners.values()) {
+			adapter.processMessage(message);
+		}
 	}
 
 	public boolean isMultiUserChat() {
 		return true;
 	}
 
+	MultiUserChat getMultiUserChat() {
+		return this.chat;
+	}
+
 	public boolean isCommandsAccepted() {
 		return this.commandsAccepted;
 	}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) 2026 the original author or authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE
+ */
+package hudson.plugins.jabber.im.transport;
+
+import java.util.logging.Logger;
+
+import org.jivesoftware.smack.c2s.ModularXmppClientToServerConnection;
+import org.jivesoftware.smack.c2s.ModularXmppClientToServerConnectionConfiguration;
+import org.jivesoftware.smack.tcp.XMPPTCPConnectionConfiguration;
+import org.jivesoftware.smack.tcp.XmppTcpTransportModuleDescriptor;
+
+/**
+ * Creates connections on Smack's modular connection architecture with the non-blocking TCP transport.
+ * <p>
+ * {@link org.jivesoftware.smack.tcp.XMPPTCPConnection} has a reader and a writer thread per connection. The
+ * non-blocking transport handles the I/O of all its connections on Smack's shared reactor thread instead, which keeps
+ * the thread count low with many sessions. It doesn't support stream management, so it is only used for the
+ * additional sending sessions, never for the main connection.
+ * <p>
+ * The transport opens its own socket channels, so it can't go through a proxy or a custom socket factory (direct TLS
+ * and legacy SSL). Such configurations keep using {@link org.jivesoftware.smack.tcp.XMPPTCPConnection}.
+ */
+final class JabberNonBlockingConnections {
+
+	private static final Logger LOGGER = Logger.getLogger(JabberNonBlockingConnections.class.getName());
+
+	private JabberNonBlockingConnections() {
+	}
+
+	/**
+	 * Whether connections with the given configuration can use the non-blocking transport. Logs why not if they
+	 * can't.
+	 */
+	static boolean isSupported(XMPPTCPConnectionConfiguration conf) {
+		String reason = null;
+		if (conf.getProxyInfo() != null) {
+			reason = "a proxy is configured";
+		} else if (conf.getSocketFactory() != null) {
+			reason = "the connection uses direct TLS or legacy SSL";
+		}
+		if (reason != null) {
+			LOGGER.info("Not using the non-blocking transport for additional sessions as " + reason);
+			JabberMetrics.increment("sessions.nonblocking.unsupported");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Creates a connection with the same endpoint, TLS and debugger settings as the given configuration, which must
+	 * be {@link #isSupported(XMPPTCPConnectionConfiguration) supported}.
+	 */
+	static ModularXmppClientToServerConnection create(XMPPTCPConnectionConfiguration conf) {
+		ModularXmppClientToServerConnectionConfiguration.Builder builder = ModularXmppClientToServerConnectionConfiguration
+				.builder()
+				.removeAllModules()
+				.addModule(XmppTcpTransportModuleDescriptor.class)
+				.setXmppDomain(conf.getXMPPServiceDomain())
+				.setPort(conf.getPort())
+				.setSecurityMode(conf.getSecurityMode());
+		if (conf.getHostAddress() != null) {
+			builder.setHostAddress(conf.getHostAddress());
+		} else if (conf.getHost() != null) {
+			builder.setHost(conf.getHost());
+		}
+		if (conf.getCustomSSLContext() != null) {
+			builder.setCustomSSLContext(conf.getCustomSSLContext());
+		}
+		if (conf.getHostnameVerifier() != null) {
+			builder.setHostnameVerifier(conf.getHostnameVerifier());
+		}
+		if (conf.getDebuggerFactory() != null) {
+			builder.setDebuggerFactory(conf.getDebuggerFactory());
+		}
+		JabberMetrics.increment("sessions.nonblocking.created");
+		return new ModularXmppClientToServerConnection(builder.build());
+	}
+}
@@ -0,0 +1,527 @@
+/**
+ * Copyright (c) 2026 the original author or authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE
+ */
+package hudson.plugins.jabber.im.transport;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import hudson.plugins.im.GroupChatIMMessageTarget;
+import hudson.plugins.im.IMException;
+import hudson.plugins.im.IMMessageTarget;
+import hudson.plugins.im.tools.ExceptionHelper;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+/**
+ * Bounded queue of outbound messages which is drained by dedicated sender threads.
+ * <p>
+ * Build threads only enqueue their notification and return immediately. If the queue is full, callers are blocked
+ * until there is room again (backpressure) or until {@link #ENQUEUE_TIMEOUT_SECONDS} have passed, in which case an
+ * {@link IMException} is thrown instead of silently losing the message.
+ * <p>
+ * The queue is split into {@link #LANES} lanes, each with its own sender thread. All messages for the same target go
+ * through the same lane, so they are sent in order, while messages for different targets are sent in parallel and a
+ * slow target (e.g. a group chat which is still being joined) doesn't hold up everyone else.
+ * <p>
+ * If a {@link JabberOutbox} is available, every message is recorded there before it is queued and only marked as
+ * done once it has been sent, so messages which couldn't be sent can be replayed after a reconnect.
+ * <p>
+ * Optionally, messages for the same target are merged by a {@link JabberMessageCoalescer} before they are queued,
+ * and the sender threads are throttled by a {@link JabberRateLimiter}. Messages to a target which is out of tokens
+ * are held back by the lane, in order, while it goes on sending to other targets.
+ */
+final class JabberOutboundQueue {
+
+	private static final Logger LOGGER = Logger.getLogger(JabberOutboundQueue.class.getName());
+
+	/**
+	 * Maximum number of queued messages over all lanes.
+	 */
+	static final int CAPACITY = Integer.getInteger(JabberOutboundQueue.class.getName() + ".capacity", 1000);
+
+	static final int ENQUEUE_TIMEOUT_SECONDS = Integer
+			.getInteger(JabberOutboundQueue.class.getName() + ".enqueueTimeoutSeconds", 60);
+
+	static final int LANES = Math.max(1, Integer.getInteger(JabberOutboundQueue.class.getName() + ".lanes", 4));
+
+	/**
+	 * Outcome of sending a message.
+	 */
+	enum Delivery {
+		/** The message was sent. */
+		SENT,
+		/** The message was sent; the sender marks the outbox entry as done when the server acknowledges it. */
+		AWAITING_ACK,
+		/** The message couldn't be sent because the connection is down. It should be retried later. */
+		NOT_SENT
+	}
+
+	/**
+	 * Does the actual sending of a message. Only ever called from the sender threads, but concurrently for messages
+	 * to different targets.
+	 */
+	interface Sender {
+		/**
+		 * Sends the message.
+		 *
+		 * @throws IMException if the message can't be sent at all
+		 */
+		Delivery send(Message message) throws IMException;
+	}
+
+	/**
+	 * A queued message.
+	 */
+	static final class Message {
+		private static final long[] NO_IDS = new long[0];
+
+		private final IMMessageTarget target;
+		private final String text;
+		private final long[] outboxIds;
+
+		/**
+		 * @param outboxId the id of the corresponding {@link JabberOutbox} entry or -1 if there is none
+		 */
+		Message(IMMessageTarget target, String text, long outboxId) {
+			this(target, text, outboxId != -1 ? new long[] { outboxId } : NO_IDS);
+		}
+
+		/**
+		 * @param outboxIds the ids of the {@link JabberOutbox} entries of all messages merged into this one
+		 */
+		Message(IMMessageTarget target, String text, long[] outboxIds) {
+			this.target = target;
+			this.text = text;
+			this.outboxIds = outboxIds;
+		}
+
+		IMMessageTarget getTarget() {
+			return this.target;
+		}
+
+		String getText() {
+			return this.text;
+		}
+
+		long[] getOutboxIds() {
+			return this.outboxIds;
+		}
+	}
+
+	/**
+	 * The queued messages of a lane, and the messages its sender thread holds back because their target is out of
+	 * tokens.
+	 */
+	private static final class Lane {
+		private final BlockingDeque<Message> queue;
+		private final int capacity;
+		/** Held messages per target, in order. Only accessed by the sender thread. */
+		private final Map<String, Deque<Message>> held = new HashMap<>();
+		/** When the targets in {@link #held} may be tried again, as {@link System#nanoTime()}. */
+		private final Map<String, Long> heldUntil = new HashMap<>();
+		private final AtomicInteger heldCount = new AtomicInteger();
+
+		Lane(int capacity) {
+			this.queue = new LinkedBlockingDeque<>(capacity);
+			this.capacity = capacity;
+		}
+
+		/**
+		 * Returns the next message to try: the first held message of a target whose wait is over, otherwise the next
+		 * queued message. Returns null if there is none yet, or if the message has been held back behind earlier
+		 * messages of its target.
+		 */
+		Message next() throws InterruptedException {
+			String dueKey = null;
+			long dueAt = 0;
+			for (Map.Entry<String, Long> entry : this.heldUntil.entrySet()) {
+				if (dueKey == null || entry.getValue() - dueAt < 0) {
+					dueKey = entry.getKey();
+					dueAt = entry.getValue();
+				}
+			}
+			long waitNanos = dueAt - System.nanoTime();
+			if (dueKey != null && (waitNanos <= 0 || this.heldCount.get() >= this.capacity)) {
+				if (waitNanos > 0) {
+					// don't take even more messages from the queue, so the backpressure reaches the callers
+					TimeUnit.NANOSECONDS.sleep(waitNanos);
+				}
+				return release(dueKey);
+			}
+			Message message = dueKey == null ? this.queue.takeFirst()
+					: this.queue.pollFirst(waitNanos, TimeUnit.NANOSECONDS);
+			if (message != null) {
+				roomAvailable();
+				Deque<Message> targetHeld = this.held.get(keyOf(message.target));
+				if (targetHeld != null) {
+					targetHeld.addLast(message);
+					this.heldCount.incrementAndGet();
+					return null;
+				}
+			}
+			return message;
+		}
+
+		/**
+		 * Holds back a message which was returned by {@link #next()} until its target has a token again.
+		 */
+		void hold(Message message, long waitNanos) {
+			String key = keyOf(message.target);
+			Deque<Message> targetHeld = this.held.get(key);
+			if (targetHeld == null) {
+				targetHeld = new ArrayDeque<>();
+				this.held.put(key, targetHeld);
+			}
+			// it is the oldest message of its target
+			targetHeld.addFirst(message);
+			this.heldCount.incrementAndGet();
+			this.heldUntil.put(key, System.nanoTime() + waitNanos);
+		}
+
+		private Message release(String key) {
+			Deque<Message> targetHeld = this.held.get(key);
+			Message message = targetHeld.pollFirst();
+			this.heldCount.decrementAndGet();
+			if (targetHeld.isEmpty()) {
+				this.held.remove(key);
+				this.heldUntil.remove(key);
+			} else {
+				// try the next one right away, unless this one is held again
+				this.heldUntil.put(key, System.nanoTime());
+			}
+			return message;
+		}
+
+		/**
+		 * Waits until the queue has room for another message.
+		 *
+		 * @return false if it's still full after the timeout
+		 */
+		synchronized boolean awaitRoom(long timeoutNanos) throws InterruptedException {
+			long deadline = System.nanoTime() + timeoutNanos;
+			while (this.queue.remainingCapacity() == 0) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					return false;
+				}
+				TimeUnit.NANOSECONDS.timedWait(this, remaining);
+			}
+			return true;
+		}
+
+		synchronized void roomAvailable() {
+			notifyAll();
+		}
+
+		int size() {
+			return this.queue.size() + this.heldCount.get();
+		}
+	}
+
+	private final List<Lane> lanes = new ArrayList<>(LANES);
+
+	/**
+	 * Messages which couldn't be sent because the connection was down. See {@link #retryDeferred()}.
+	 */
+	private final List<Message> deferred = new ArrayList<>();
+	private final Sender sender;
+	private final JabberOutbox outbox;
+	private final JabberMessageCoalescer coalescer;
+	private final JabberRateLimiter rateLimiter;
+	private final ExecutorService executor;
+	private final AtomicBoolean highWaterMarkReported = new AtomicBoolean();
+	private volatile boolean shutdown;
+
+	/**
+	 * @param outbox the journal to record messages in. May be null.
+	 * @param coalescingWindowMillis messages for the same target within this window are merged. 0 to disable.
+	 * @param coalescingMaxMessages maximum number of messages merged into one
+	 * @param rateLimiter limits the rate at which messages are sent. May be null.
+	 */
+	JabberOutboundQueue(Sender sender, JabberOutbox outbox, long coalescingWindowMillis, int coalescingMaxMessages,
+			JabberRateLimiter rateLimiter) {
+		this.sender = sender;
+		this.outbox = outbox;
+		this.rateLimiter = rateLimiter;
+		if (coalescingWindowMillis > 0 && coalescingMaxMessages > 1) {
+			this.coalescer = new JabberMessageCoalescer(coalescingWindowMillis, coalescingMaxMessages,
+					TimeUnit.SECONDS.toMillis(ENQUEUE_TIMEOUT_SECONDS), new JabberMessageCoalescer.Flusher() {
+						@Override
+						public boolean flush(IMMessageTarget target, String text, long[] outboxIds) {
+							if (!laneFor(target).queue.offerLast(new Message(target, text, outboxIds))) {
+								return false;
+							}
+							reportDepth();
+							return true;
+						}
+
+						@Override
+						public void failed(IMMessageTarget target, String text, long[] outboxIds) {
+							LOGGER.warning("Outbound queue stayed full. Merged message to " + target + " not sent.");
+							JabberMetrics.increment("coalescing.failed");
+							// like a message which couldn't be queued: don't replay it later
+							markDone(outboxIds);
+						}
+					});
+		} else {
+			this.coalescer = null;
+		}
+		this.executor = Executors.newFixedThreadPool(LANES,
+				new NamingThreadFactory(new DaemonThreadFactory(), JabberOutboundQueue.class.getSimpleName()));
+		int laneCapacity = Math.max(1, CAPACITY / LANES);
+		for (int i = 0; i < LANES; i++) {
+			final Lane lane = new Lane(laneCapacity);
+			this.lanes.add(lane);
+			this.executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					drain(lane);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Returns the key which identifies the target. Messages with the same key are sent in order.
+	 */
+	static String keyOf(IMMessageTarget target) {
+		if (target instanceof GroupChatIMMessageTarget) {
+			return ((GroupChatIMMessageTarget) target).getName();
+		}
+		return target.toString();
+	}
+
+	private Lane laneFor(IMMessageTarget target) {
+		return this.lanes.get(Math.floorMod(keyOf(target).hashCode(), this.lanes.size()));
+	}
+
+	/**
+	 * Puts a message into the queue.
+	 *
+	 * @throws IMException if the queue is shut down or stays full for more than {@link #ENQUEUE_TIMEOUT_SECONDS}
+	 */
+	void enqueue(IMMessageTarget target, String text) throws IMException {
+		if (this.shutdown) {
+			throw new IMException("Outbound queue has been shut down");
+		}
+		if (this.coalescer != null) {
+			// the coalescer hands merged messages over without blocking, so the backpressure is applied here
+			awaitRoom(target);
+			this.coalescer.add(target, text, this.outbox != null ? this.outbox.append(target, text) : -1);
+			return;
+		}
+		long outboxId = this.outbox != null ? this.outbox.append(target, text) : -1;
+		Message message = new Message(target, text, outboxId);
+		boolean queued = false;
+		try {
+			offer(message);
+			queued = true;
+		} finally {
+			if (!queued) {
+				// the caller is told that the message wasn't sent, so don't replay it later
+				markDone(message.outboxIds);
+			}
+		}
+	}
+
+	private void awaitRoom(IMMessageTarget target) throws IMException {
+		try {
+			if (!laneFor(target).awaitRoom(TimeUnit.SECONDS.toNanos(ENQUEUE_TIMEOUT_SECONDS))) {
+				throw new IMException("Outbound queue is full (" + CAPACITY + " messages). Message to "
+						+ target + " not sent.");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IMException(e);
+		}
+	}
+
+	private void offer(Message message) throws IMException {
+		try {
+			if (!laneFor(message.target).queue.offerLast(message, ENQUEUE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				throw new IMException("Outbound queue is full (" + CAPACITY + " messages). Message to "
+						+ message.target + " not sent.");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IMException(e);
+		}
+		reportDepth();
+	}
+
+	/**
+	 * Puts messages which were recorded in the outbox, but not sent, in front of the queue. The order of the messages
+	 * is retained. Messages which don't fit into the queue stay in the outbox.
+	 */
+	void replay(List<Message> messages) {
+		int replayed = 0;
+		int overflowed = 0;
+		ListIterator<Message> it = messages.listIterator(messages.size());
+		while (it.hasPrevious()) {
+			Message message = it.previous();
+			if (laneFor(message.target).queue.offerFirst(message)) {
+				replayed++;
+			} else {
+				overflowed++;
+			}
+		}
+		if (replayed > 0) {
+			LOGGER.info("Replaying " + replayed + " messages from the outbox");
+		}
+		if (overflowed > 0) {
+			JabberMetrics.counter("outbound.replay.overflow").addAndGet(overflowed);
+			LOGGER.warning(overflowed + " messages to replay don't fit into the outbound queue. "
+					+ (this.outbox != null ? "They stay in the outbox until the next connect." : "They are discarded."));
+		}
+		reportDepth();
+	}
+
+	/**
+	 * Puts the messages which couldn't be sent because the connection was down back in front of the queue. Used when
+	 * the connection has been restored without creating a new {@link JabberIMConnection}.
+	 */
+	void retryDeferred() {
+		List<Message> messages;
+		synchronized (this.deferred) {
+			messages = new ArrayList<>(this.deferred);
+			this.deferred.clear();
+		}
+		replay(messages);
+	}
+
+	/**
+	 * Returns the number of messages which are waiting to be sent.
+	 */
+	int getDepth() {
+		int depth = 0;
+		for (Lane lane : this.lanes) {
+			depth += lane.size();
+		}
+		return depth;
+	}
+
+	/**
+	 * Stops the sender threads. Messages which are still queued are discarded, but stay in the outbox (if any).
+	 */
+	void shutdown() {
+		this.shutdown = true;
+		if (this.coalescer != null) {
+			this.coalescer.shutdown();
+		}
+		this.executor.shutdownNow();
+		int dropped = getDepth();
+		for (Lane lane : this.lanes) {
+			lane.queue.clear();
+			lane.roomAvailable();
+		}
+		if (dropped > 0) {
+			if (this.outbox != null) {
+				LOGGER.info(dropped + " queued outbound messages will be replayed after the next connect");
+			} else {
+				LOGGER.warning("Discarded " + dropped + " queued outbound messages on shutdown");
+			}
+		}
+	}
+
+	private void reportDepth() {
+		int depth = getDepth();
+		if (depth >= CAPACITY * 3 / 4) {
+			if (this.highWaterMarkReported.compareAndSet(false, true)) {
+				LOGGER.warning("Outbound queue is filling up: " + depth + " of " + CAPACITY + " messages waiting");
+			}
+		} else if (depth <= CAPACITY / 4) {
+			this.highWaterMarkReported.set(false);
+		}
+	}
+
+	private void drain(Lane lane) {
+		while (!this.shutdown) {
+			Message message;
+			try {
+				message = lane.next();
+				if (message == null) {
+					continue;
+				}
+				if (this.rateLimiter != null) {
+					// an interrupt means shutdown; the message stays in the outbox (if any)
+					long waitNanos = this.rateLimiter.tryAcquire(keyOf(message.target));
+					if (waitNanos > 0) {
+						lane.hold(message, waitNanos);
+						continue;
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			try {
+				switch (this.sender.send(message)) {
+				case SENT:
+					markDone(message.outboxIds);
+					break;
+				case AWAITING_ACK:
+					break;
+				case NOT_SENT:
+					LOGGER.fine("Message to " + message.target + " not sent. Keeping it for replay.");
+					defer(message);
+					break;
+				default:
+					throw new AssertionError();
+				}
+			} catch (IMException | RuntimeException e) {
+				LOGGER.warning("Failed to send message to " + message.target + ":\n" + ExceptionHelper.dump(e));
+				markDone(message.outboxIds);
+			}
+			reportDepth();
+		}
+	}
+
+	private void defer(Message message) {
+		synchronized (this.deferred) {
+			if (this.deferred.size() < CAPACITY) {
+				this.deferred.add(message);
+			}
+		}
+	}
+
+	private void markDone(long[] outboxIds) {
+		if (this.outbox != null) {
+			for (long outboxId : outboxIds) {
+				this.outbox.markDone(outboxId);
+			}
+		}
+	}
+}
@@ -0,0 +1,376 @@
+/**
+ * Copyright (c) 2026 the original author or authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE
+ */
+package hudson.plugins.jabber.im.transport;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import hudson.plugins.im.GroupChatIMMessageTarget;
+import hudson.plugins.im.IMMessageTarget;
+import hudson.plugins.im.tools.ExceptionHelper;
+import jenkins.model.Jenkins;
+
+/**
+ * Append-only, memory-mapped journal of outbound messages below JENKINS_HOME.
+ * <p>
+ * Every message is appended before it is handed to the XMPP connection and marked as done once it has been sent.
+ * Messages which are still pending - e.g. because the connection was down or Jenkins was restarted - are replayed
+ * after the next successful connect. Entries older than {@link #MAX_AGE_MILLIS} are dropped on compaction.
+ * <p>
+ * Record layout: {@code int length | byte state | long id | long created | byte kind | int targetLength | target |
+ * int textLength | text}. The length is written last, so a record which was only partially written before a crash
+ * is ignored on recovery.
+ * <p>
+ * Records aren't forced to disk one by one, as that would serialize all builds which send notifications on the disk.
+ * The mapped pages are written back by the operating system, so a recorded message survives a restart of Jenkins,
+ * but not necessarily a crash of the machine. The journal is forced when it's closed. A crash may also cause a
+ * message to be sent twice. Compaction writes a new journal next to the old one and moves it over the old one
+ * atomically, so a crash leaves either of them intact.
+ */
+final class JabberOutbox {
+
+	private static final Logger LOGGER = Logger.getLogger(JabberOutbox.class.getName());
+
+	static final String FILE_NAME = "jabber-outbox.journal";
+
+	static final int CAPACITY = Integer.getInteger(JabberOutbox.class.getName() + ".capacity", 4 * 1024 * 1024);
+
+	static final long MAX_AGE_MILLIS = TimeUnit.HOURS
+			.toMillis(Integer.getInteger(JabberOutbox.class.getName() + ".maxAgeHours", 24));
+
+	private static final int MAGIC = 0x4a424f58; // "JBOX"
+	private static final int HEADER_SIZE = 8;
+	private static final int RECORD_HEADER_SIZE = 4 + 1 + 8 + 8 + 1 + 4 + 4;
+
+	private static final byte STATE_PENDING = 1;
+	private static final byte STATE_DONE = 2;
+
+	private static final byte KIND_PRIVATE = 'P';
+	private static final byte KIND_GROUPCHAT = 'G';
+
+	private static JabberOutbox instance;
+
+	private final File journal;
+	private final int capacity;
+	private RandomAccessFile file;
+	private MappedByteBuffer buffer;
+
+	/**
+	 * Positions of all pending records by id. Ordered by id, which is also the order of the records in the file.
+	 */
+	private final TreeMap<Long, Integer> pending = new TreeMap<>();
+	private long nextId = 1;
+	private int writePosition = HEADER_SIZE;
+
+	/**
+	 * A pending journal entry.
+	 */
+	static final class Entry {
+		private final long id;
+		private final long created;
+		private final boolean groupChat;
+		private final String target;
+		private final String text;
+
+		Entry(long id, long created, boolean groupChat, String target, String text) {
+			this.id = id;
+			this.created = created;
+			this.groupChat = groupChat;
+			this.target = target;
+			this.text = text;
+		}
+
+		long getId() {
+			return this.id;
+		}
+
+		long getCreated() {
+			return this.created;
+		}
+
+		boolean isGroupChat() {
+			return this.groupChat;
+		}
+
+		String getTarget() {
+			return this.target;
+		}
+
+		String getText() {
+			return this.text;
+		}
+	}
+
+	/**
+	 * @param capacity the size of the journal in bytes
+	 */
+	JabberOutbox(File journal, int capacity) throws IOException {
+		this.journal = journal;
+		this.capacity = capacity;
+		this.file = new RandomAccessFile(journal, "rw");
+		this.buffer = map(this.file, capacity);
+		// left behind by a compaction which didn't complete
+		Files.deleteIfExists(compactionFile().toPath());
+		recover();
+	}
+
+	private static MappedByteBuffer map(RandomAccessFile file, int capacity) throws IOException {
+		return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+	}
+
+	private File compactionFile() {
+		return new File(this.journal.getPath() + ".compact");
+	}
+
+	/**
+	 * Returns the outbox of this Jenkins instance or null if the journal could not be opened. In the latter case
+	 * messages are still sent, they just don't survive a disconnect.
+	 */
+	static synchronized JabberOutbox getInstance() {
+		if (instance == null) {
+			Jenkins jenkins = Jenkins.getInstanceOrNull();
+			if (jenkins == null) {
+				return null;
+			}
+			try {
+				instance = new JabberOutbox(new File(jenkins.getRootDir(), FILE_NAME), CAPACITY);
+			} catch (IOException e) {
+				LOGGER.warning("Unable to open outbox journal. Pending messages won't survive disconnects.\n"
+						+ ExceptionHelper.dump(e));
+				return null;
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Records a new pending message.
+	 *
+	 * @return the id of the new entry or -1 if the message couldn't be recorded because the journal is full
+	 */
+	synchronized long append(IMMessageTarget target, String text) {
+		boolean groupChat = target instanceof GroupChatIMMessageTarget;
+		byte[] targetBytes = (groupChat ? ((GroupChatIMMessageTarget) target).getName() : target.toString())
+				.getBytes(StandardCharsets.UTF_8);
+		byte[] textBytes = text.getBytes(StandardCharsets.UTF_8);
+		int length = RECORD_HEADER_SIZE + targetBytes.length + textBytes.length;
+
+		// keep room for the terminating zero length
+		if (this.writePosition + length + 4 > this.capacity) {
+			compact();
+			if (this.writePosition + length + 4 > this.capacity) {
+				LOGGER.warning("Outbox journal is full. Message to " + target + " is not persisted.");
+				return -1;
+			}
+		}
+
+		long id = this.nextId++;
+		int position = this.writePosition;
+		this.buffer.position(position + 4);
+		this.buffer.put(STATE_PENDING);
+		this.buffer.putLong(id);
+		this.buffer.putLong(System.currentTimeMillis());
+		this.buffer.put(groupChat ? KIND_GROUPCHAT : KIND_PRIVATE);
+		this.buffer.putInt(targetBytes.length);
+		this.buffer.put(targetBytes);
+		this.buffer.putInt(textBytes.length);
+		this.buffer.put(textBytes);
+		this.buffer.putInt(0);
+		// commit the record
+		this.buffer.putInt(position, length);
+
+		this.writePosition = position + length;
+		this.pending.put(id, position);
+		return id;
+	}
+
+	/**
+	 * Marks an entry as sent, so it's not replayed anymore.
+	 */
+	synchronized void markDone(long id) {
+		Integer position = this.pending.remove(id);
+		if (position == null) {
+			return;
+		}
+		this.buffer.put(position + 4, STATE_DONE);
+		if (this.pending.isEmpty()) {
+			// nothing left to keep - start over at the beginning
+			this.writePosition = HEADER_SIZE;
+			this.buffer.putInt(HEADER_SIZE, 0);
+		}
+	}
+
+	/**
+	 * Returns all pending, not yet expired entries in the order in which they were recorded.
+	 */
+	synchronized List<Entry> getPendingEntries() {
+		long oldest = System.currentTimeMillis() - MAX_AGE_MILLIS;
+		List<Entry> entries = new ArrayList<>(this.pending.size());
+		for (Integer position : new ArrayList<>(this.pending.values())) {
+			Entry entry = read(position);
+			if (entry.getCreated() < oldest) {
+				markDone(entry.getId());
+			} else {
+				entries.add(entry);
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Returns the number of pending entries.
+	 */
+	synchronized int getPendingCount() {
+		return this.pending.size();
+	}
+
+	/**
+	 * Closes the journal file. The outbox must not be used afterwards.
+	 */
+	synchronized void close() throws IOException {
+		this.buffer.force();
+		this.file.close();
+	}
+
+	/**
+	 * Replaces the journal by one which only contains the pending, not yet expired entries. Keeps the journal as it is
+	 * if that fails.
+	 */
+	private void compact() {
+		long oldest = System.currentTimeMillis() - MAX_AGE_MILLIS;
+		File compactionFile = compactionFile();
+		int position = HEADER_SIZE;
+		Map<Long, Integer> compacted = new TreeMap<>();
+		RandomAccessFile newFile = null;
+		try {
+			newFile = new RandomAccessFile(compactionFile, "rw");
+			newFile.setLength(0);
+			FileChannel channel = newFile.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(0, MAGIC);
+			write(channel, header);
+			for (Map.Entry<Long, Integer> e : this.pending.entrySet()) {
+				int from = e.getValue();
+				long created = this.buffer.getLong(from + 4 + 1 + 8);
+				if (created < oldest) {
+					continue;
+				}
+				int length = this.buffer.getInt(from);
+				ByteBuffer record = this.buffer.duplicate();
+				record.limit(from + length);
+				record.position(from);
+				write(channel, record);
+				compacted.put(e.getKey(), position);
+				position += length;
+			}
+			write(channel, ByteBuffer.allocate(4));
+			channel.force(true);
+			// map it before the move, so nothing can fail once the new journal is in place
+			MappedByteBuffer newBuffer = map(newFile, this.capacity);
+			Files.move(compactionFile.toPath(), this.journal.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			RandomAccessFile oldFile = this.file;
+			this.file = newFile;
+			this.buffer = newBuffer;
+			closeQuietly(oldFile);
+		} catch (IOException e) {
+			LOGGER.warning("Unable to compact the outbox journal: " + ExceptionHelper.dump(e));
+			if (newFile != null) {
+				closeQuietly(newFile);
+			}
+			compactionFile.delete();
+			return;
+		}
+		this.pending.clear();
+		this.pending.putAll(compacted);
+		LOGGER.fine("Compacted outbox journal from " + this.writePosition + " to " + position + " bytes");
+		this.writePosition = position;
+	}
+
+	private static void closeQuietly(RandomAccessFile file) {
+		try {
+			file.close();
+		} catch (IOException e) {
+			LOGGER.fine(e.toString());
+		}
+	}
+
+	private static void write(FileChannel channel, ByteBuffer bytes) throws IOException {
+		while (bytes.hasRemaining()) {
+			channel.write(bytes);
+		}
+	}
+
+	private Entry read(int position) {
+		this.buffer.position(position + 4 + 1);
+		long id = this.buffer.getLong();
+		long created = this.buffer.getLong();
+		boolean groupChat = this.buffer.get() == KIND_GROUPCHAT;
+		byte[] target = new byte[this.buffer.getInt()];
+		this.buffer.get(target);
+		byte[] text = new byte[this.buffer.getInt()];
+		this.buffer.get(text);
+		return new Entry(id, created, groupChat, new String(target, StandardCharsets.UTF_8),
+				new String(text, StandardCharsets.UTF_8));
+	}
+
+	private void recover() {
+		if (this.buffer.getInt(0) != MAGIC) {
+			this.buffer.putInt(0, MAGIC);
+			this.buffer.putInt(HEADER_SIZE, 0);
+			return;
+		}
+		int position = HEADER_SIZE;
+		while (position + RECORD_HEADER_SIZE <= this.capacity) {
+			int length = this.buffer.getInt(position);
+			if (length < RECORD_HEADER_SIZE || position + length > this.capacity) {
+				break;
+			}
+			long id = this.buffer.getLong(position + 4 + 1);
+			if (this.buffer.get(position + 4) == STATE_PENDING) {
+				this.pending.put(id, position);
+			}
+			this.nextId = Math.max(this.nextId, id + 1);
+			position += length;
+		}
+		this.writePosition = position;
+		if (position + 4 <= this.capacity) {
+			this.buffer.putInt(position, 0);
+		}
+		if (!this.pending.isEmpty()) {
+			LOGGER.info("Recovered " + this.pending.size() + " pending messages from the outbox journal");
+		}
+	}
+}
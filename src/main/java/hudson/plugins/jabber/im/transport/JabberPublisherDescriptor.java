@@ -27,6 +27,7 @@ import java.net.InetAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -88,6 +89,17 @@ public class JabberPublisherDescriptor extends BuildStepDescriptor<Publisher> im
 	public static final String PARAMETERNAME_SUBSCRIPTION_MODE = PREFIX + "subscriptionMode";
 	public static final String PARAMETERNAME_EMAIL_ADDRESS_AS_JABBERID = PREFIX + "emailAsJabberId";
 	public static final String PARAMETERNAME_ACCEPT_ALL_CERTS = PREFIX + "acceptAllCerts";
+	public static final String PARAMETERNAME_WHITESPACE_KEEP_ALIVE = PREFIX + "whitespaceKeepAlive";
+	public static final String PARAMETERNAME_DIRECT_TLS = PREFIX + "directTls";
+	public static final String PARAMETERNAME_WARM_STANDBY = PREFIX + "warmStandby";
+	public static final String PARAMETERNAME_SESSION_COUNT = PREFIX + "sessionCount";
+	public static final String PARAMETERNAME_NON_BLOCKING_TRANSPORT = PREFIX + "nonBlockingTransport";
+	public static final String PARAMETERNAME_JOIN_PARALLELISM = PREFIX + "groupChatJoinParallelism";
+	public static final String PARAMETERNAME_COALESCING_WINDOW = PREFIX + "coalescingWindowMillis";
+	public static final String PARAMETERNAME_COALESCING_MAX_MESSAGES = PREFIX + "coalescingMaxMessages";
+	public static final String PARAMETERNAME_RATE_LIMIT = PREFIX + "rateLimitPerMinute";
+	public static final String PARAMETERNAME_RATE_LIMIT_PER_TARGET = PREFIX + "rateLimitPerTargetPerMinute";
+	public static final String PARAMETERNAME_RATE_LIMIT_BURST = PREFIX + "rateLimitBurst";
 	public static final String[] PARAMETERVALUE_SUBSCRIPTION_MODE;
 	public static final String[] PARAMETERVALUE_PROXYTYPES;
 	static {
@@ -108,6 +120,9 @@ public class JabberPublisherDescriptor extends BuildStepDescriptor<Publisher> im
 	public static final String DEFAULT_COMMAND_PREFIX = "!";
 
 	private static final int DEFAULT_PORT = 5222;
+	private static final int DEFAULT_JOIN_PARALLELISM = 4;
+	private static final int DEFAULT_COALESCING_MAX_MESSAGES = 20;
+	private static final int DEFAULT_RATE_LIMIT_BURST = 5;
 
 	// big Boolean to support backwards compatibility
 	private Boolean enabled;
@@ -144,6 +159,49 @@ public class JabberPublisherDescriptor extends BuildStepDescriptor<Publisher> im
 
 	private boolean acceptAllCerts;
 
+	/**
+	 * Send whitespace instead of pings to keep an idle connection alive.
+	 */
+	private boolean whitespaceKeepAlive;
+
+	/**
+	 * Connect with direct TLS (XEP-0368) if the server announces it.
+	 */
+	private boolean directTls;
+
+	/**
+	 * Keep a second session logged in which takes over immediately if the connection fails.
+	 */
+	private boolean warmStandby;
+
+	/**
+	 * Number of sessions over which outbound private messages are distributed, including the main connection.
+	 */
+	private int sessionCount = 1;
+
+	/**
+	 * Use Smack's non-blocking transport for the additional sessions.
+	 */
+	private boolean nonBlockingTransport;
+
+	/**
+	 * Maximum number of group chats which are joined concurrently after connecting.
+	 */
+	private int groupChatJoinParallelism = DEFAULT_JOIN_PARALLELISM;
+
+	/**
+	 * Messages to the same target within this many milliseconds are merged into one. 0 disables merging.
+	 */
+	private int coalescingWindowMillis;
+	private int coalescingMaxMessages = DEFAULT_COALESCING_MAX_MESSAGES;
+
+	/**
+	 * Maximum number of messages per minute over all targets and to a single target. 0 means unlimited.
+	 */
+	private int rateLimitPerMinute;
+	private int rateLimitPerTargetPerMinute;
+	private int rateLimitBurst = DEFAULT_RATE_LIMIT_BURST;
+
 	/**
 	 * @deprecated replaced by {@link #defaultTargets} Still needed to deserialize old descriptors
 	 */
@@ -277,6 +335,42 @@ public class JabberPublisherDescriptor extends BuildStepDescriptor<Publisher> im
 		}
 	}
 
+	private void applyGroupChatJoinParallelism(final HttpServletRequest req) throws FormException {
+		this.groupChatJoinParallelism = parseInt(req, PARAMETERNAME_JOIN_PARALLELISM, "Parallel group chat joins", 1,
+				DEFAULT_JOIN_PARALLELISM);
+	}
+
+	private void applyCoalescing(final HttpServletRequest req) throws FormException {
+		this.coalescingWindowMillis = parseInt(req, PARAMETERNAME_COALESCING_WINDOW, "Merge window", 0, 0);
+		this.coalescingMaxMessages = parseInt(req, PARAMETERNAME_COALESCING_MAX_MESSAGES,
+				"Maximum number of merged messages", 1, DEFAULT_COALESCING_MAX_MESSAGES);
+	}
+
+	private void applyRateLimits(final HttpServletRequest req) throws FormException {
+		this.rateLimitPerMinute = parseInt(req, PARAMETERNAME_RATE_LIMIT, "Messages per minute", 0, 0);
+		this.rateLimitPerTargetPerMinute = parseInt(req, PARAMETERNAME_RATE_LIMIT_PER_TARGET,
+				"Messages per minute and target", 0, 0);
+		this.rateLimitBurst = parseInt(req, PARAMETERNAME_RATE_LIMIT_BURST, "Burst size", 1,
+				DEFAULT_RATE_LIMIT_BURST);
+	}
+
+	private static int parseInt(final HttpServletRequest req, final String parameterName, final String title,
+			final int min, final int defaultValue) throws FormException {
+		final String s = Util.fixEmptyAndTrim(req.getParameter(parameterName));
+		if (s == null) {
+			return defaultValue;
+		}
+		try {
+			final int i = Integer.parseInt(s);
+			if (i < min) {
+				throw new FormException(title + " must be at least " + min + ".", parameterName);
+			}
+			return i;
+		} catch (final NumberFormatException e) {
+			throw new FormException(title + " cannot be parsed.", parameterName);
+		}
+	}
+
 	private void applyCommandPrefix(final HttpServletRequest req) {
 		String prefix = req.getParameter(PARAMETERNAME_COMMAND_PREFIX);
 		if ((prefix != null) && (prefix.trim().length() > 0)) {
@@ -515,6 +609,83 @@ public class JabberPublisherDescriptor extends BuildStepDescriptor<Publisher> im
 		return this.acceptAllCerts;
 	}
 
+	public boolean isWhitespaceKeepAlive() {
+		return this.whitespaceKeepAlive;
+	}
+
+	public boolean isDirectTls() {
+		return this.directTls;
+	}
+
+	public boolean isWarmStandby() {
+		return this.warmStandby;
+	}
+
+	/**
+	 * Returns the number of sessions over which outbound private messages are distributed, at least 1.
+	 */
+	public int getSessionCount() {
+		return Math.max(1, this.sessionCount);
+	}
+
+	public boolean isNonBlockingTransport() {
+		return this.nonBlockingTransport;
+	}
+
+	/**
+	 * Returns the window in milliseconds within which messages to the same target are merged. 0 if disabled.
+	 */
+	public int getCoalescingWindowMillis() {
+		return this.coalescingWindowMillis;
+	}
+
+	/**
+	 * Returns the maximum number of messages which are merged into one.
+	 */
+	public int getCoalescingMaxMessages() {
+		if (this.coalescingMaxMessages < 1) {
+			// not set in configurations saved by older versions
+			return DEFAULT_COALESCING_MAX_MESSAGES;
+		}
+		return this.coalescingMaxMessages;
+	}
+
+	/**
+	 * Returns the maximum number of messages per minute over all targets. 0 if unlimited.
+	 */
+	public int getRateLimitPerMinute() {
+		return this.rateLimitPerMinute;
+	}
+
+	/**
+	 * Returns the maximum number of messages per minute to a single target. 0 if unlimited.
+	 */
+	public int getRateLimitPerTargetPerMinute() {
+		return this.rateLimitPerTargetPerMinute;
+	}
+
+	/**
+	 * Returns the number of messages which may be sent in a row before the rate limits apply.
+	 */
+	public int getRateLimitBurst() {
+		if (this.rateLimitBurst < 1) {
+			// not set in configurations saved by older versions
+			return DEFAULT_RATE_LIMIT_BURST;
+		}
+		return this.rateLimitBurst;
+	}
+
+	/**
+	 * Returns the maximum number of group chats which are joined concurrently.
+	 */
+	public int getGroupChatJoinParallelism() {
+		if (this.groupChatJoinParallelism < 1) {
+			// not set in configurations saved by older versions
+			return DEFAULT_JOIN_PARALLELISM;
+		}
+		return this.groupChatJoinParallelism;
+	}
+
 	/**
 	 * Creates a new instance of {@link JabberPublisher} from a submitted form.
 	 */
@@ -590,24 +761,36 @@ public class JabberPublisherDescriptor extends BuildStepDescriptor<Publisher> im
 	 */
 	@Override
 	public boolean configure(StaplerRequest req, JSONObject json) throws hudson.model.Descriptor.FormException {
+		List<Object> previousSettings = isEnabled() ? getConnectionSettings() : null;
 		String en = req.getParameter(PARAMETERNAME_ENABLED);
 		this.enabled = Boolean.valueOf(en != null);
 		this.exposePresence = req.getParameter(PARAMETERNAME_PRESENCE) != null;
 		this.subscriptionMode = Util.fixEmptyAndTrim(req.getParameter(PARAMETERNAME_SUBSCRIPTION_MODE));
 		this.emailAddressAsJabberId = req.getParameter(PARAMETERNAME_EMAIL_ADDRESS_AS_JABBERID) != null;
 		this.acceptAllCerts = req.getParameter(PARAMETERNAME_ACCEPT_ALL_CERTS) != null;
+		this.whitespaceKeepAlive = req.getParameter(PARAMETERNAME_WHITESPACE_KEEP_ALIVE) != null;
+		this.directTls = req.getParameter(PARAMETERNAME_DIRECT_TLS) != null;
+		this.warmStandby = req.getParameter(PARAMETERNAME_WARM_STANDBY) != null;
 		applyHostname(req, this.enabled);
 		applyPort(req, this.enabled);
 		applyNickname(req, this.enabled);
 		applyPassword(req, this.enabled);
 		applyGroupChatNickname(req);
 		applyInitialGroupChats(req);
+		applyGroupChatJoinParallelism(req);
+		applyCoalescing(req);
+		applyRateLimits(req);
+		this.sessionCount = parseInt(req, PARAMETERNAME_SESSION_COUNT, "Sending sessions", 1, 1);
+		this.nonBlockingTransport = req.getParameter(PARAMETERNAME_NON_BLOCKING_TRANSPORT) != null;
 		applyCommandPrefix(req);
 		applyDefaultIdSuffix(req);
 		applyHudsonLoginPassword(req);
 		applyProxy(req);
 
-		if (isEnabled()) {
+		if (isEnabled() && getConnectionSettings().equals(previousSettings)
+				&& JabberIMConnectionProvider.applyDesc(this)) {
+			LOGGER.info("Applied the changed configuration to the existing connection");
+		} else if (isEnabled()) {
 			try {
 				JabberIMConnectionProvider.setDesc(this);
 				JabberIMConnectionProvider.getInstance().currentConnection();
@@ -629,6 +812,18 @@ public class JabberPublisherDescriptor extends BuildStepDescriptor<Publisher> im
 		return super.configure(req, json);
 	}
 
+	/**
+	 * Returns all settings which can only be changed by reconnecting. Changes to any other setting - group chats,
+	 * presence, subscription mode, command prefix - are applied to the existing connection.
+	 */
+	private List<Object> getConnectionSettings() {
+		return Arrays.<Object>asList(getHostname(), getPort(), getJabberId(), getPassword(), getNickname(),
+				getProxyType(), getProxyHost(), getProxyPort(), getProxyUser(), Secret.toString(getProxyPass()),
+				isAcceptAllCerts(), isWhitespaceKeepAlive(), isDirectTls(), isWarmStandby(), getSessionCount(),
+				isNonBlockingTransport(), getCoalescingWindowMillis(), getCoalescingMaxMessages(),
+				getRateLimitPerMinute(), getRateLimitPerTargetPerMinute(), getRateLimitBurst());
+	}
+
 	public FormValidation doJabberIdCheck(@QueryParameter String jabberId, @QueryParameter final String hostname,
 			@QueryParameter final String port, @QueryParameter final String proxyType) {
 		if (!Jenkins.get().hasPermission(Jenkins.ADMINISTER)) {
@@ -0,0 +1,220 @@
+/**
+ * Copyright (c) 2026 the original author or authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE
+ */
+package hudson.plugins.jabber.im.transport;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token-bucket rate limiter for outbound messages, with one bucket for the whole connection and one per target.
+ * <p>
+ * Many servers punish clients which exceed their rate limits ("karma") by delaying, dropping or disconnecting them.
+ * The sender threads call {@link #tryAcquire(String)} before each message. If the target is out of tokens, the
+ * message is held back by the outbound queue while the lane goes on with other targets; if the connection is out of
+ * tokens, the sender waits. Messages therefore wait instead of being dropped.
+ * <p>
+ * A target's bucket is dropped once it has been refilled completely, as it is no different from a new one then.
+ */
+final class JabberRateLimiter {
+
+	private static final long EVICTION_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+	/**
+	 * A classic token bucket, refilled continuously.
+	 */
+	static final class TokenBucket {
+		private final double tokensPerNano;
+		private final double capacity;
+		private double tokens;
+		private long lastRefill;
+		private boolean evicted;
+
+		/**
+		 * @param perMinute number of tokens added per minute
+		 * @param burst maximum number of tokens which can be accumulated
+		 */
+		TokenBucket(int perMinute, int burst) {
+			this.tokensPerNano = perMinute / (double) TimeUnit.MINUTES.toNanos(1);
+			this.capacity = Math.max(1, burst);
+			this.tokens = this.capacity;
+			this.lastRefill = System.nanoTime();
+		}
+
+		/**
+		 * Takes a token if there is one.
+		 *
+		 * @return 0 if a token was taken, -1 if the bucket has been evicted, otherwise the number of nanoseconds until
+		 *         the next token is available
+		 */
+		synchronized long tryAcquire() {
+			if (this.evicted) {
+				return -1;
+			}
+			refill();
+			if (this.tokens >= 1) {
+				this.tokens -= 1;
+				return 0;
+			}
+			return Math.max(1, (long) Math.ceil((1 - this.tokens) / this.tokensPerNano));
+		}
+
+		synchronized long getAvailable() {
+			return (long) this.tokens;
+		}
+
+		/**
+		 * Marks the bucket as evicted if it is full, so no more tokens are taken from it.
+		 *
+		 * @return whether the bucket has been evicted
+		 */
+		synchronized boolean evictIfFull() {
+			refill();
+			if (this.tokens >= this.capacity) {
+				this.evicted = true;
+			}
+			return this.evicted;
+		}
+
+		private void refill() {
+			long now = System.nanoTime();
+			this.tokens = Math.min(this.capacity, this.tokens + (now - this.lastRefill) * this.tokensPerNano);
+			this.lastRefill = now;
+		}
+	}
+
+	private final TokenBucket global;
+	private final int perTargetPerMinute;
+	private final int burst;
+	private final ConcurrentMap<String, TokenBucket> perTarget = new ConcurrentHashMap<>();
+	private volatile long lastEviction = System.nanoTime();
+
+	private JabberRateLimiter(int perMinute, int perTargetPerMinute, int burst) {
+		this.global = perMinute > 0 ? new TokenBucket(perMinute, burst) : null;
+		this.perTargetPerMinute = perTargetPerMinute;
+		this.burst = burst;
+		if (this.global != null) {
+			JabberMetrics.gauge("ratelimit.global.available", new JabberMetrics.Gauge() {
+				@Override
+				public long getValue() {
+					return global.getAvailable();
+				}
+			});
+		}
+		if (this.perTargetPerMinute > 0) {
+			JabberMetrics.gauge("ratelimit.targets", new JabberMetrics.Gauge() {
+				@Override
+				public long getValue() {
+					return perTarget.size();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Creates a rate limiter.
+	 *
+	 * @param perMinute maximum number of messages per minute over all targets. 0 for no limit.
+	 * @param perTargetPerMinute maximum number of messages per minute to a single target. 0 for no limit.
+	 * @param burst number of messages which may be sent in a row before the limits apply
+	 * @return the limiter or null if neither limit is set
+	 */
+	static JabberRateLimiter create(int perMinute, int perTargetPerMinute, int burst) {
+		if (perMinute <= 0 && perTargetPerMinute <= 0) {
+			return null;
+		}
+		return new JabberRateLimiter(perMinute, perTargetPerMinute, burst);
+	}
+
+	/**
+	 * Takes the tokens for a message to the target with the given key. Doesn't wait if the target is out of tokens,
+	 * but does wait for the connection's bucket, as that holds up all targets anyway.
+	 *
+	 * @return 0 if the message may be sent, otherwise the number of nanoseconds until the target has a token again
+	 * @throws InterruptedException if the calling thread is interrupted while waiting
+	 */
+	long tryAcquire(String targetKey) throws InterruptedException {
+		// take the target's token first, so no global token is taken for a target which has to wait anyway
+		if (this.perTargetPerMinute > 0) {
+			evictIdleBuckets();
+			TokenBucket bucket = bucketFor(targetKey);
+			long waitNanos;
+			while ((waitNanos = bucket.tryAcquire()) < 0) {
+				// evicted concurrently, replace it by a new one
+				this.perTarget.remove(targetKey, bucket);
+				bucket = bucketFor(targetKey);
+			}
+			if (waitNanos > 0) {
+				JabberMetrics.increment("ratelimit.held.messages");
+				return waitNanos;
+			}
+		}
+		if (this.global != null) {
+			long start = System.nanoTime();
+			await(this.global);
+			long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			if (waitedMillis > 0) {
+				JabberMetrics.increment("ratelimit.delayed.messages");
+				JabberMetrics.counter("ratelimit.delayed.millis").addAndGet(waitedMillis);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Drops the buckets of targets which haven't been sent anything for long enough to refill them. Runs at most
+	 * once per {@link #EVICTION_INTERVAL_NANOS}.
+	 */
+	private void evictIdleBuckets() {
+		long now = System.nanoTime();
+		if (now - this.lastEviction < EVICTION_INTERVAL_NANOS) {
+			return;
+		}
+		this.lastEviction = now;
+		for (Map.Entry<String, TokenBucket> entry : this.perTarget.entrySet()) {
+			if (entry.getValue().evictIfFull() && this.perTarget.remove(entry.getKey(), entry.getValue())) {
+				JabberMetrics.increment("ratelimit.targets.evicted");
+			}
+		}
+	}
+
+	private TokenBucket bucketFor(String targetKey) {
+		TokenBucket bucket = this.perTarget.get(targetKey);
+		if (bucket == null) {
+			TokenBucket newBucket = new TokenBucket(this.perTargetPerMinute, this.burst);
+			bucket = this.perTarget.putIfAbsent(targetKey, newBucket);
+			if (bucket == null) {
+				bucket = newBucket;
+			}
+		}
+		return bucket;
+	}
+
+	private static void await(TokenBucket bucket) throws InterruptedException {
+		long waitNanos;
+		while ((waitNanos = bucket.tryAcquire()) > 0) {
+			TimeUnit.NANOSECONDS.sleep(waitNanos);
+		}
+	}
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) 2026 the original author or authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE
+ */
+package hudson.plugins.jabber.im.transport;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides how long to wait before the next connection attempt.
+ * <p>
+ * There is no delay before the first attempt. After failures, the delays grow exponentially with the number of
+ * consecutive failures up to {@link #MAX_DELAY_MILLIS}, and each delay is chosen randomly between 0 and that bound
+ * ("full jitter"). This way many Jenkins instances which lost their
+ * connection at the same time - e.g. because the XMPP server was restarted - don't all reconnect at once.
+ * <p>
+ * After {@link #CIRCUIT_THRESHOLD} consecutive failures the circuit opens: for {@link #MAX_DELAY_MILLIS} no attempts
+ * are made at all. Then a single trial attempt is allowed (half-open), which either closes the circuit again or
+ * re-opens it.
+ */
+final class JabberReconnectBackoff {
+
+	static final long BASE_DELAY_MILLIS = Long.getLong(JabberReconnectBackoff.class.getName() + ".baseDelayMillis",
+			5000);
+
+	static final long MAX_DELAY_MILLIS = TimeUnit.SECONDS
+			.toMillis(Long.getLong(JabberReconnectBackoff.class.getName() + ".maxDelaySeconds", 5 * 60));
+
+	static final int CIRCUIT_THRESHOLD = Integer.getInteger(JabberReconnectBackoff.class.getName() + ".circuitThreshold",
+			8);
+
+	enum CircuitState {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final long baseDelayMillis;
+	private final long maxDelayMillis;
+	private final int circuitThreshold;
+
+	private int failures;
+	private long openUntil;
+	private CircuitState circuitState = CircuitState.CLOSED;
+
+	JabberReconnectBackoff() {
+		this(BASE_DELAY_MILLIS, MAX_DELAY_MILLIS, CIRCUIT_THRESHOLD);
+	}
+
+	JabberReconnectBackoff(long baseDelayMillis, long maxDelayMillis, int circuitThreshold) {
+		this.baseDelayMillis = baseDelayMillis;
+		this.maxDelayMillis = maxDelayMillis;
+		this.circuitThreshold = circuitThreshold;
+		JabberMetrics.gauge("reconnect.consecutive.failures", new JabberMetrics.Gauge() {
+			@Override
+			public long getValue() {
+				return getFailures();
+			}
+		});
+		JabberMetrics.gauge("reconnect.circuit.state", new JabberMetrics.Gauge() {
+			@Override
+			public long getValue() {
+				return getCircuitState().ordinal();
+			}
+		});
+	}
+
+	/**
+	 * Returns the number of milliseconds to wait before the next attempt or -1 if the circuit is open and no attempt
+	 * should be made at all.
+	 */
+	synchronized long nextDelayMillis() {
+		if (this.circuitState == CircuitState.OPEN) {
+			if (System.currentTimeMillis() < this.openUntil) {
+				return -1;
+			}
+			this.circuitState = CircuitState.HALF_OPEN;
+			return 0;
+		}
+		if (this.failures == 0) {
+			return 0;
+		}
+		long bound = this.baseDelayMillis << Math.min(this.failures - 1, 20);
+		if (bound <= 0 || bound > this.maxDelayMillis) {
+			bound = this.maxDelayMillis;
+		}
+		return ThreadLocalRandom.current().nextLong(bound + 1);
+	}
+
+	synchronized void onSuccess() {
+		this.failures = 0;
+		this.circuitState = CircuitState.CLOSED;
+	}
+
+	synchronized void onFailure() {
+		this.failures++;
+		if (this.circuitState == CircuitState.HALF_OPEN || this.failures >= this.circuitThreshold) {
+			if (this.circuitState != CircuitState.OPEN) {
+				JabberMetrics.increment("reconnect.circuit.opened");
+			}
+			this.circuitState = CircuitState.OPEN;
+			this.openUntil = System.currentTimeMillis() + this.maxDelayMillis;
+		}
+	}
+
+	/**
+	 * Forgets all failures, e.g. because the configuration was changed.
+	 */
+	synchronized void reset() {
+		onSuccess();
+	}
+
+	synchronized int getFailures() {
+		return this.failures;
+	}
+
+	synchronized CircuitState getCircuitState() {
+		return this.circuitState;
+	}
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) 2026 the original author or authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE
+ */
+package hudson.plugins.jabber.im.transport;
+
+import java.util.Arrays;
+
+/**
+ * Round-trip times of the most recent keep-alive pings, with percentiles.
+ * <p>
+ * Only the last {@link #SIZE} samples are kept, so the percentiles follow changes in latency instead of being
+ * dominated by the history of a long-lived connection. As pings are rare, computing the percentiles by sorting a copy
+ * of the samples is cheap enough.
+ */
+final class JabberRoundTripTimes {
+
+	static final int SIZE = 128;
+
+	private final long[] samples = new long[SIZE];
+	private int count;
+	private int next;
+
+	synchronized void record(long millis) {
+		this.samples[this.next] = millis;
+		this.next = (this.next + 1) % SIZE;
+		this.count = Math.min(this.count + 1, SIZE);
+	}
+
+	/**
+	 * Returns the given percentile of the recorded round-trip times in milliseconds or -1 if nothing was recorded
+	 * yet.
+	 *
+	 * @param percentile between 0 and 100
+	 */
+	long getPercentile(double percentile) {
+		long[] sorted;
+		synchronized (this) {
+			if (this.count == 0) {
+				return -1;
+			}
+			sorted = Arrays.copyOf(this.samples, this.count);
+		}
+		Arrays.sort(sorted);
+		// nearest-rank method
+		int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+		return sorted[Math.max(0, Math.min(rank, sorted.length) - 1)];
+	}
+
+	synchronized int getCount() {
+		return this.count;
+	}
+}
@@ -0,0 +1,312 @@
+/**
+ * Copyright (c) 2026 the original author or authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE
+ */
+package hudson.plugins.jabber.im.transport;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import hudson.plugins.im.tools.ExceptionHelper;
+
+/**
+ * Thread-safe cache of chat sessions, bounded in size and optionally by idle time.
+ * <p>
+ * The least recently used entry is evicted once the cache is full, entries which haven't been used for longer than
+ * the idle time are evicted on the next access to the cache. Each evicted value is handed to the
+ * {@link EvictionListener}, so the session it belongs to can be released right away instead of whenever the
+ * garbage collector gets to it. Pinned keys are never evicted and don't count against the size bound. Hits, misses
+ * and evictions are counted in {@link JabberMetrics} as {@code cache.<name>.hits}, {@code cache.<name>.misses} and
+ * {@code cache.<name>.evictions}.
+ */
+final class JabberSessionCache<K, V> {
+
+	private static final Logger LOGGER = Logger.getLogger(JabberSessionCache.class.getName());
+
+	/**
+	 * Releases evicted values. Called without holding the lock of the cache.
+	 */
+	interface EvictionListener<K, V> {
+		void evicted(K key, V value);
+	}
+
+	/**
+	 * Creates the value for a key which isn't cached. Called with the lock of the cache held.
+	 */
+	interface Factory<K, V> {
+		V create(K key);
+	}
+
+	private final int maxSize;
+	private final long idleNanos;
+	private final EvictionListener<K, V> listener;
+
+	private final AtomicLong hits;
+	private final AtomicLong misses;
+	private final AtomicLong evictions;
+
+	/**
+	 * In access order, so the least recently used entry comes first.
+	 */
+	private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * Guarded by {@link #entries}.
+	 */
+	private Set<K> pinned = new HashSet<>();
+
+	/**
+	 * @param name the name of the counters in {@link JabberMetrics}
+	 * @param maxSize the maximum number of entries
+	 * @param idleMillis entries which haven't been used for this long are evicted. 0 to disable.
+	 */
+	JabberSessionCache(String name, int maxSize, long idleMillis, EvictionListener<K, V> listener) {
+		this.maxSize = Math.max(1, maxSize);
+		this.idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+		this.listener = listener;
+		this.hits = JabberMetrics.counter("cache." + name + ".hits");
+		this.misses = JabberMetrics.counter("cache." + name + ".misses");
+		this.evictions = JabberMetrics.counter("cache." + name + ".evictions");
+	}
+
+	/**
+	 * Returns the value for the key and marks it as used, or null if there is none.
+	 */
+	V get(K key) {
+		List<Map.Entry<K, V>> evicted = new ArrayList<>();
+		V value = null;
+		synchronized (this.entries) {
+			expire(System.nanoTime(), evicted);
+			Entry<V> entry = this.entries.get(key);
+			if (entry != null) {
+				entry.lastUsed = System.nanoTime();
+				value = entry.value;
+			}
+		}
+		(value != null ? this.hits : this.misses).incrementAndGet();
+		notifyListener(evicted);
+		return value;
+	}
+
+	/**
+	 * Returns whether there is a value for the key. Unlike {@link #get(Object)}, this neither counts as a hit or miss
+	 * nor marks the value as used.
+	 */
+	boolean containsKey(K key) {
+		synchronized (this.entries) {
+			Entry<V> entry = this.entries.get(key);
+			return entry != null && (this.pinned.contains(key) || !isExpired(entry, System.nanoTime()));
+		}
+	}
+
+	/**
+	 * Returns the value for the key and marks it as used. If there is none, it's created and added while the lock of
+	 * the cache is held, so concurrent callers get the same value.
+	 */
+	V computeIfAbsent(K key, Factory<K, V> factory) {
+		List<Map.Entry<K, V>> evicted = new ArrayList<>();
+		V value;
+		boolean hit;
+		synchronized (this.entries) {
+			long now = System.nanoTime();
+			expire(now, evicted);
+			Entry<V> entry = this.entries.get(key);
+			hit = entry != null;
+			if (hit) {
+				entry.lastUsed = now;
+				value = entry.value;
+			} else {
+				value = factory.create(key);
+				this.entries.put(key, new Entry<>(value, now));
+				evictEldest(evicted);
+			}
+		}
+		(hit ? this.hits : this.misses).incrementAndGet();
+		notifyListener(evicted);
+		return value;
+	}
+
+	/**
+	 * Adds a value. A value which was already cached for the key is evicted, just like the least recently used
+	 * entries if the cache is full.
+	 */
+	void put(K key, V value) {
+		List<Map.Entry<K, V>> evicted = new ArrayList<>();
+		synchronized (this.entries) {
+			long now = System.nanoTime();
+			expire(now, evicted);
+			Entry<V> replaced = this.entries.put(key, new Entry<>(value, now));
+			if (replaced != null && replaced.value != value) {
+				evicted.add(new AbstractMap.SimpleImmutableEntry<>(key, replaced.value));
+			}
+			evictEldest(evicted);
+		}
+		notifyListener(evicted);
+	}
+
+	/**
+	 * Replaces the keys which are never evicted. Their values are still removed by {@link #remove(Object)} and
+	 * {@link #clear()}.
+	 */
+	void setPinned(Collection<K> keys) {
+		synchronized (this.entries) {
+			this.pinned = new HashSet<>(keys);
+		}
+	}
+
+	/**
+	 * Removes the value for the key without notifying the {@link EvictionListener}.
+	 *
+	 * @return the removed value or null
+	 */
+	V remove(K key) {
+		synchronized (this.entries) {
+			Entry<V> entry = this.entries.remove(key);
+			return entry != null ? entry.value : null;
+		}
+	}
+
+	/**
+	 * Evicts all entries which have been idle for too long.
+	 */
+	void cleanUp() {
+		List<Map.Entry<K, V>> evicted = new ArrayList<>();
+		synchronized (this.entries) {
+			expire(System.nanoTime(), evicted);
+		}
+		notifyListener(evicted);
+	}
+
+	/**
+	 * Returns a snapshot of all values, least recently used first.
+	 */
+	List<V> values() {
+		synchronized (this.entries) {
+			List<V> values = new ArrayList<>(this.entries.size());
+			for (Entry<V> entry : this.entries.values()) {
+				values.add(entry.value);
+			}
+			return values;
+		}
+	}
+
+	/**
+	 * Removes all entries without notifying the {@link EvictionListener}.
+	 */
+	void clear() {
+		synchronized (this.entries) {
+			this.entries.clear();
+		}
+	}
+
+	int size() {
+		synchronized (this.entries) {
+			return this.entries.size();
+		}
+	}
+
+	long getHits() {
+		return this.hits.get();
+	}
+
+	long getMisses() {
+		return this.misses.get();
+	}
+
+	long getEvictions() {
+		return this.evictions.get();
+	}
+
+	private void evictEldest(List<Map.Entry<K, V>> evicted) {
+		int size = this.entries.size();
+		if (!this.pinned.isEmpty()) {
+			for (K key : this.pinned) {
+				if (this.entries.containsKey(key)) {
+					size--;
+				}
+			}
+		}
+		Iterator<Map.Entry<K, Entry<V>>> it = this.entries.entrySet().iterator();
+		while (size > this.maxSize && it.hasNext()) {
+			Map.Entry<K, Entry<V>> eldest = it.next();
+			if (this.pinned.contains(eldest.getKey())) {
+				continue;
+			}
+			it.remove();
+			size--;
+			evicted.add(new AbstractMap.SimpleImmutableEntry<>(eldest.getKey(), eldest.getValue().value));
+		}
+	}
+
+	private void expire(long now, List<Map.Entry<K, V>> evicted) {
+		if (this.idleNanos <= 0) {
+			return;
+		}
+		// the least recently used entries come first, so we can stop at the first one which is still in use
+		Iterator<Map.Entry<K, Entry<V>>> it = this.entries.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<K, Entry<V>> entry = it.next();
+			if (this.pinned.contains(entry.getKey())) {
+				continue;
+			}
+			if (!isExpired(entry.getValue(), now)) {
+				break;
+			}
+			it.remove();
+			evicted.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue().value));
+		}
+	}
+
+	private boolean isExpired(Entry<V> entry, long now) {
+		return this.idleNanos > 0 && now - entry.lastUsed > this.idleNanos;
+	}
+
+	private void notifyListener(List<Map.Entry<K, V>> evicted) {
+		for (Map.Entry<K, V> entry : evicted) {
+			this.evictions.incrementAndGet();
+			try {
+				this.listener.evicted(entry.getKey(), entry.getValue());
+			} catch (RuntimeException e) {
+				LOGGER.warning(ExceptionHelper.dump(e));
+			}
+		}
+	}
+
+	private static final class Entry<V> {
+		private final V value;
+		private long lastUsed;
+
+		Entry(V value, long lastUsed) {
+			this.value = value;
+			this.lastUsed = lastUsed;
+		}
+	}
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2026 the original author or authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE
+ */
+package hudson.plugins.jabber.im.transport;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.jivesoftware.smack.AbstractXMPPConnection;
+
+/**
+ * Distributes outbound private messages over several sessions of the same account, so the throughput isn't limited by
+ * a single stream and the server's per-session rate limit.
+ * <p>
+ * Targets are assigned to sessions by consistent hashing, so all messages to a target go through the same session and
+ * stay in order, and adding or losing a session only moves the targets of that session. Session 0 is the main
+ * connection, which also handles group chats and incoming messages; the other sessions only send. If a session is not
+ * available, its targets are served by the main connection.
+ */
+final class JabberSessionShards {
+
+	/**
+	 * Number of points per session on the hash ring. More points spread the targets more evenly.
+	 */
+	private static final int VIRTUAL_NODES = 64;
+
+	private final AtomicReferenceArray<AbstractXMPPConnection> sessions;
+	private final TreeMap<Integer, Integer> ring = new TreeMap<>();
+
+	/**
+	 * @param count total number of sessions, including the main connection
+	 */
+	JabberSessionShards(int count) {
+		this.sessions = new AtomicReferenceArray<>(count);
+		for (int shard = 0; shard < count; shard++) {
+			for (int node = 0; node < VIRTUAL_NODES; node++) {
+				this.ring.put(hash("shard-" + shard + "#" + node), shard);
+			}
+		}
+	}
+
+	int getCount() {
+		return this.sessions.length();
+	}
+
+	/**
+	 * Returns the index of the session which is responsible for the target with the given key.
+	 */
+	int shardFor(String targetKey) {
+		Map.Entry<Integer, Integer> entry = this.ring.ceilingEntry(hash(targetKey));
+		if (entry == null) {
+			entry = this.ring.firstEntry();
+		}
+		return entry.getValue();
+	}
+
+	/**
+	 * Returns the additional session which should send to the target with the given key or null if the main
+	 * connection should be used.
+	 */
+	AbstractXMPPConnection sessionFor(String targetKey) {
+		int shard = shardFor(targetKey);
+		if (shard == 0) {
+			return null;
+		}
+		AbstractXMPPConnection session = this.sessions.get(shard);
+		return session != null && session.isAuthenticated() ? session : null;
+	}
+
+	void set(int shard, AbstractXMPPConnection session) {
+		this.sessions.set(shard, session);
+	}
+
+	/**
+	 * Removes the session, if it is still the one at the given index.
+	 *
+	 * @return true if it was removed
+	 */
+	boolean remove(int shard, AbstractXMPPConnection session) {
+		return this.sessions.compareAndSet(shard, session, null);
+	}
+
+	/**
+	 * Returns the number of additional sessions which are currently logged in.
+	 */
+	int getActiveCount() {
+		int active = 0;
+		for (int shard = 1; shard < this.sessions.length(); shard++) {
+			AbstractXMPPConnection session = this.sessions.get(shard);
+			if (session != null && session.isAuthenticated()) {
+				active++;
+			}
+		}
+		return active;
+	}
+
+	/**
+	 * Disconnects all additional sessions.
+	 */
+	void disconnectAll() {
+		for (int shard = 1; shard < this.sessions.length(); shard++) {
+			AbstractXMPPConnection session = this.sessions.getAndSet(shard, null);
+			if (session != null) {
+				session.disconnect();
+			}
+		}
+	}
+
+	/**
+	 * String hash with the bits mixed well enough to spread similar keys over the ring (MurmurHash3 finalizer).
+	 */
+	static int hash(String s) {
+		int h = s.hashCode();
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+}
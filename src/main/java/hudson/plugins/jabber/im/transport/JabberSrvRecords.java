@@ -0,0 +1,191 @@
+/**
+ * Copyright (c) 2026 the original author or authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE
+ */
+package hudson.plugins.jabber.im.transport;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Random;
+
+import javax.naming.Context;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.InitialDirContext;
+
+/**
+ * Looks up DNS SRV records (RFC 2782) via JNDI and orders them by priority and weight.
+ */
+final class JabberSrvRecords {
+
+	/**
+	 * SRV prefix for XMPP clients using direct TLS (XEP-0368).
+	 */
+	static final String XMPPS_CLIENT = "_xmpps-client._tcp.";
+
+	/**
+	 * A target host and port from an SRV record.
+	 */
+	static final class Endpoint {
+		private final int priority;
+		private final int weight;
+		private final String host;
+		private final int port;
+
+		Endpoint(int priority, int weight, String host, int port) {
+			this.priority = priority;
+			this.weight = weight;
+			this.host = host;
+			this.port = port;
+		}
+
+		int getPriority() {
+			return this.priority;
+		}
+
+		int getWeight() {
+			return this.weight;
+		}
+
+		String getHost() {
+			return this.host;
+		}
+
+		int getPort() {
+			return this.port;
+		}
+
+		@Override
+		public String toString() {
+			return this.host + ":" + this.port;
+		}
+	}
+
+	private JabberSrvRecords() {
+	}
+
+	/**
+	 * Looks up the SRV records with the given name, e.g. {@code _xmpps-client._tcp.example.com}.
+	 *
+	 * @return the endpoints in the order of the response. Use {@link #order(List, Random)} to get the order in which
+	 *         they should be tried. Empty if there are no records or the service is explicitly not available.
+	 */
+	static List<Endpoint> lookup(String name) throws NamingException {
+		Hashtable<String, String> env = new Hashtable<>();
+		env.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.dns.DnsContextFactory");
+		DirContext context = new InitialDirContext(env);
+		List<Endpoint> endpoints = new ArrayList<>();
+		try {
+			Attributes attributes = context.getAttributes(name, new String[] { "SRV" });
+			Attribute srv = attributes.get("SRV");
+			if (srv != null) {
+				NamingEnumeration<?> records = srv.getAll();
+				while (records.hasMore()) {
+					Endpoint endpoint = parse(records.next().toString());
+					if (endpoint != null) {
+						endpoints.add(endpoint);
+					}
+				}
+			}
+		} catch (NameNotFoundException e) {
+			return Collections.emptyList();
+		} finally {
+			context.close();
+		}
+		return endpoints;
+	}
+
+	/**
+	 * Parses an SRV record of the form {@code priority weight port target}.
+	 *
+	 * @return the endpoint or null if the record is malformed or says that the service is not available
+	 */
+	static Endpoint parse(String record) {
+		String[] parts = record.trim().split("\\s+");
+		if (parts.length != 4) {
+			return null;
+		}
+		String host = parts[3];
+		if (host.endsWith(".")) {
+			host = host.substring(0, host.length() - 1);
+		}
+		if (host.isEmpty()) {
+			// a target of "." means the service is decidedly not available
+			return null;
+		}
+		try {
+			return new Endpoint(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), host,
+					Integer.parseInt(parts[2]));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Orders the endpoints as described in RFC 2782: by ascending priority, and within the same priority randomly,
+	 * weighted by their weight.
+	 */
+	static List<Endpoint> order(List<Endpoint> endpoints, Random random) {
+		List<Endpoint> sorted = new ArrayList<>(endpoints);
+		Collections.sort(sorted, new Comparator<Endpoint>() {
+			@Override
+			public int compare(Endpoint e1, Endpoint e2) {
+				return Integer.compare(e1.priority, e2.priority);
+			}
+		});
+		List<Endpoint> ordered = new ArrayList<>(sorted.size());
+		int i = 0;
+		while (i < sorted.size()) {
+			int j = i;
+			while (j < sorted.size() && sorted.get(j).priority == sorted.get(i).priority) {
+				j++;
+			}
+			List<Endpoint> group = new ArrayList<>(sorted.subList(i, j));
+			while (!group.isEmpty()) {
+				int totalWeight = 0;
+				for (Endpoint e : group) {
+					totalWeight += e.weight;
+				}
+				int pick = 0;
+				if (totalWeight > 0) {
+					int r = random.nextInt(totalWeight + 1);
+					int sum = 0;
+					for (pick = 0; pick < group.size() - 1; pick++) {
+						sum += group.get(pick).weight;
+						if (sum >= r) {
+							break;
+						}
+					}
+				}
+				ordered.add(group.remove(pick));
+			}
+			i = j;
+		}
+		return ordered;
+	}
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright (c) 2026 the original author or authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE
+ */
+package hudson.plugins.jabber.im.transport;
+
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+
+import org.jivesoftware.smack.util.TLSUtils;
+
+/**
+ * Holds the one {@link SSLContext} used by all connections of the current configuration.
+ * <p>
+ * Smack creates a new SSLContext - and thereby a new, empty TLS session cache - for every connection unless it is
+ * given one. By sharing the context, reconnects to the same server can resume the previous TLS session with an
+ * abbreviated handshake. The context is dropped when the configuration changes.
+ */
+final class JabberSslContexts {
+
+	private static SSLContext context;
+	private static boolean contextAcceptsAllCerts;
+
+	private JabberSslContexts() {
+	}
+
+	/**
+	 * Returns the shared SSLContext, creating it if needed.
+	 *
+	 * @param acceptAllCerts whether the context should trust all certificates
+	 */
+	static synchronized SSLContext get(boolean acceptAllCerts) throws NoSuchAlgorithmException,
+			KeyManagementException {
+		if (context == null || contextAcceptsAllCerts != acceptAllCerts) {
+			SSLContext newContext = SSLContext.getInstance("TLS");
+			TrustManager[] trustManagers = acceptAllCerts
+					? new TrustManager[] { new TLSUtils.AcceptAllTrustManager() }
+					: null;
+			newContext.init(null, trustManagers, null);
+			context = newContext;
+			contextAcceptsAllCerts = acceptAllCerts;
+		}
+		return context;
+	}
+
+	/**
+	 * Drops the shared SSLContext, so the next connection starts with a fresh one.
+	 */
+	static synchronized void reset() {
+		context = null;
+	}
+}
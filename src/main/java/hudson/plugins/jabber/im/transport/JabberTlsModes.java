@@ -0,0 +1,160 @@
+/**
+ * Copyright (c) 2026 the original author or authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE
+ */
+package hudson.plugins.jabber.im.transport;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import javax.net.SocketFactory;
+import javax.net.ssl.SSLContext;
+
+import hudson.plugins.im.tools.ExceptionHelper;
+import hudson.util.AtomicFileWriter;
+import jenkins.model.Jenkins;
+import org.jivesoftware.smack.tcp.XMPPTCPConnectionConfiguration;
+
+/**
+ * Remembers which TLS mode last worked for a server, so the next connect can start with it instead of waiting for
+ * the other mode to fail first. The modes are persisted in JENKINS_HOME, keyed by service name and host:port.
+ */
+final class JabberTlsModes {
+
+	private static final Logger LOGGER = Logger.getLogger(JabberTlsModes.class.getName());
+
+	static final String FILE_NAME = "jabber-tls-modes.properties";
+
+	/**
+	 * How TLS is established.
+	 */
+	enum Mode {
+		/** Plain connection upgraded with STARTTLS. */
+		STARTTLS,
+		/** TLS from the start ("legacy SSL"). */
+		LEGACY_SSL;
+
+		Mode other() {
+			return this == STARTTLS ? LEGACY_SSL : STARTTLS;
+		}
+
+		/**
+		 * Sets up the configuration for this mode and builds it.
+		 *
+		 * @param sslContext the context to create TLS sockets with
+		 */
+		XMPPTCPConnectionConfiguration configure(XMPPTCPConnectionConfiguration.Builder cfg, SSLContext sslContext) {
+			SocketFactory socketFactory = this == LEGACY_SSL ? sslContext.getSocketFactory() : null;
+			return cfg.setCustomSSLContext(sslContext).setSocketFactory(socketFactory).build();
+		}
+	}
+
+	private static Properties modes;
+
+	private JabberTlsModes() {
+	}
+
+	static String keyOf(String serviceName, String host, int port) {
+		return ((serviceName != null ? serviceName : "") + "/" + (host != null ? host + ":" + port : ""))
+				.toLowerCase(Locale.ENGLISH);
+	}
+
+	/**
+	 * Returns the mode to try first for the given server.
+	 */
+	static synchronized Mode getPreferredMode(String key) {
+		String mode = load().getProperty(key);
+		if (mode != null) {
+			try {
+				return Mode.valueOf(mode);
+			} catch (IllegalArgumentException e) {
+				// ignore unknown values
+			}
+		}
+		return Mode.STARTTLS;
+	}
+
+	/**
+	 * Remembers that the given mode worked for the given server.
+	 */
+	static synchronized void setWorkingMode(String key, Mode mode) {
+		Properties properties = load();
+		if (mode.name().equals(properties.getProperty(key))) {
+			return;
+		}
+		properties.setProperty(key, mode.name());
+		save(properties);
+	}
+
+	/**
+	 * Forgets the mode remembered for the given server, after it failed to connect.
+	 */
+	static synchronized void forgetMode(String key) {
+		Properties properties = load();
+		if (properties.remove(key) != null) {
+			save(properties);
+		}
+	}
+
+	private static void save(Properties properties) {
+		File file = getFile();
+		if (file == null) {
+			return;
+		}
+		try {
+			AtomicFileWriter writer = new AtomicFileWriter(file.toPath(), StandardCharsets.ISO_8859_1);
+			try {
+				properties.store(writer, "TLS modes which last worked, by XMPP server");
+				writer.commit();
+			} finally {
+				writer.abort();
+			}
+		} catch (IOException e) {
+			LOGGER.warning("Unable to save working TLS mode: " + ExceptionHelper.dump(e));
+		}
+	}
+
+	private static Properties load() {
+		if (modes == null) {
+			modes = new Properties();
+			File file = getFile();
+			if (file != null && file.isFile()) {
+				try (InputStream in = Files.newInputStream(file.toPath())) {
+					modes.load(in);
+				} catch (IOException e) {
+					LOGGER.warning("Unable to load working TLS modes: " + ExceptionHelper.dump(e));
+				}
+			}
+		}
+		return modes;
+	}
+
+	private static File getFile() {
+		Jenkins jenkins = Jenkins.getInstanceOrNull();
+		return jenkins != null ? new File(jenkins.getRootDir(), FILE_NAME) : null;
+	}
+}
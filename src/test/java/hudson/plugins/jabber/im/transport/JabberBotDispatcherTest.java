@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2026 the original author or authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE
+ */
+package hudson.plugins.jabber.im.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import hudson.plugins.im.IMChat;
+import hudson.plugins.im.IMMessage;
+import hudson.plugins.im.IMMessageListener;
+
+public class JabberBotDispatcherTest {
+
+	private final List<String> handled = Collections.synchronizedList(new ArrayList<String>());
+	private final List<String> bots = Collections.synchronizedList(new ArrayList<String>());
+	private final CountDownLatch done = new CountDownLatch(2);
+
+	private final JabberCommandExecutor executor = new JabberCommandExecutor(2, 10);
+
+	private final JabberBotDispatcher dispatcher = new JabberBotDispatcher("jenkins", "!", this.executor,
+			new JabberBotDispatcher.BotFactory() {
+				@Override
+				public IMMessageListener createBot(final IMChat chat, final String commandPrefix) {
+					bots.add(chat.getNickName("room") + " " + chat.isCommandsAccepted());
+					return new IMMessageListener() {
+						@Override
+						public void onMessage(IMMessage message) {
+							handled.add(chat.getNickName("room") + " " + message.getBody());
+							done.countDown();
+						}
+					};
+				}
+			});
+
+	@After
+	public void shutdown() {
+		this.executor.shutdown();
+	}
+
+	private static IMChat room(final String name, final boolean commandsAccepted) {
+		return new IMChat() {
+			@Override
+			public void sendMessage(String message) {
+			}
+
+			@Override
+			public String getNickName(String sender) {
+				return name;
+			}
+
+			@Override
+			public String getIMId(String senderId) {
+				return senderId;
+			}
+
+			@Override
+			public void addMessageListener(IMMessageListener listener) {
+			}
+
+			@Override
+			public void removeMessageListener(IMMessageListener listener) {
+			}
+
+			@Override
+			public boolean isMultiUserChat() {
+				return true;
+			}
+
+			@Override
+			public boolean isCommandsAccepted() {
+				return commandsAccepted;
+			}
+		};
+	}
+
+	private static IMMessage message(String body) {
+		return new IMMessage("room@conference.example.com/alice", "jenkins@example.com", body, true);
+	}
+
+	@Test
+	public void onlyRoomsWhichAcceptCommandsGetABot() throws InterruptedException {
+		IMMessageListener notifications = this.dispatcher.listenerFor(room("notifications", false));
+		IMMessageListener commands = this.dispatcher.listenerFor(room("commands", true));
+
+		notifications.onMessage(message("!status"));
+		commands.onMessage(message("!status"));
+		commands.onMessage(message("hello all"));
+		commands.onMessage(message("!health"));
+
+		assertTrue(this.done.await(10, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList("commands true"), this.bots);
+		assertEquals(Arrays.asList("commands !status", "commands !health"), this.handled);
+	}
+
+	@Test
+	public void translatesAChangedPrefixForExistingBots() throws InterruptedException {
+		IMMessageListener commands = this.dispatcher.listenerFor(room("commands", true));
+		commands.onMessage(message("!status"));
+		this.dispatcher.setCommandPrefix("#");
+		commands.onMessage(message("#health"));
+
+		assertTrue(this.done.await(10, TimeUnit.SECONDS));
+		assertEquals(1, this.bots.size());
+		assertEquals(Arrays.asList("commands !status", "commands !health"), this.handled);
+	}
+}
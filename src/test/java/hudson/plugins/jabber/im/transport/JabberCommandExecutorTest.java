@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) 2026 the original author or authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE
+ */
+package hudson.plugins.jabber.im.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class JabberCommandExecutorTest {
+
+	private final List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+	private final CountDownLatch started = new CountDownLatch(1);
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	private JabberCommandExecutor executor;
+
+	@After
+	public void shutdown() {
+		if (this.executor != null) {
+			this.executor.shutdown();
+		}
+	}
+
+	private Runnable command(final String name, final CountDownLatch done) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				executed.add(name);
+				done.countDown();
+			}
+		};
+	}
+
+	private Runnable blockingCommand(final String name, final CountDownLatch done) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				executed.add(name);
+				started.countDown();
+				try {
+					release.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				done.countDown();
+			}
+		};
+	}
+
+	@Test
+	public void usersTakeTurns() throws InterruptedException {
+		this.executor = new JabberCommandExecutor(1, 10);
+		CountDownLatch done = new CountDownLatch(4);
+		assertTrue(this.executor.submit("alice", "build", blockingCommand("a1", done)));
+		assertTrue(this.started.await(10, TimeUnit.SECONDS));
+		assertTrue(this.executor.submit("alice", "build", command("a2", done)));
+		assertTrue(this.executor.submit("alice", "build", command("a3", done)));
+		assertTrue(this.executor.submit("bob", "status", command("b1", done)));
+		this.release.countDown();
+
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList("a1", "b1", "a2", "a3"), this.executed);
+	}
+
+	@Test
+	public void rejectsCommandsBeyondTheQueueLimit() throws InterruptedException {
+		this.executor = new JabberCommandExecutor(1, 2);
+		CountDownLatch done = new CountDownLatch(3);
+		assertTrue(this.executor.submit("alice", "build", blockingCommand("a1", done)));
+		assertTrue(this.started.await(10, TimeUnit.SECONDS));
+		assertTrue(this.executor.submit("alice", "build", command("a2", done)));
+		assertTrue(this.executor.submit("bob", "status", command("b1", done)));
+		assertFalse(this.executor.submit("carol", "status", command("c1", done)));
+		this.release.countDown();
+
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertEquals(0, this.executor.getQueued());
+	}
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright (c) 2026 the original author or authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE
+ */
+package hudson.plugins.jabber.im.transport;
+
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.security.KeyStore;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JabberDirectTlsSocketFactoryTest {
+
+	/** Self-signed certificate for wrong.example.com, trusted by the client. */
+	private static final String KEYSTORE = "wrong-host.p12";
+	private static final char[] PASSWORD = "changeit".toCharArray();
+
+	private SSLContext sslContext;
+	private SSLServerSocket server;
+
+	@Before
+	public void startServer() throws Exception {
+		KeyStore keyStore = KeyStore.getInstance("PKCS12");
+		InputStream in = getClass().getResourceAsStream(KEYSTORE);
+		try {
+			keyStore.load(in, PASSWORD);
+		} finally {
+			in.close();
+		}
+		KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		kmf.init(keyStore, PASSWORD);
+		TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		tmf.init(keyStore);
+		this.sslContext = SSLContext.getInstance("TLS");
+		this.sslContext.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+
+		this.server = (SSLServerSocket) this.sslContext.getServerSocketFactory().createServerSocket(0, 10,
+				InetAddress.getLoopbackAddress());
+		Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (!server.isClosed()) {
+					try {
+						Socket socket = server.accept();
+						try {
+							((SSLSocket) socket).startHandshake();
+						} catch (IOException e) {
+							// the client rejected the certificate
+						} finally {
+							socket.close();
+						}
+					} catch (IOException e) {
+						return;
+					}
+				}
+			}
+		}, "direct-tls-test-server");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	@After
+	public void stopServer() throws IOException {
+		this.server.close();
+	}
+
+	@Test
+	public void rejectsCertificateForAnotherHost() throws IOException {
+		try {
+			handshake(new JabberDirectTlsSocketFactory(this.sslContext, "example.com", true));
+			fail("certificate for wrong.example.com accepted for example.com");
+		} catch (SSLHandshakeException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void acceptsCertificateForTheXmppDomain() throws IOException {
+		handshake(new JabberDirectTlsSocketFactory(this.sslContext, "wrong.example.com", true));
+	}
+
+	@Test
+	public void skipsHostnameCheckIfNotVerifying() throws IOException {
+		handshake(new JabberDirectTlsSocketFactory(this.sslContext, "example.com", false));
+	}
+
+	private void handshake(JabberDirectTlsSocketFactory factory) throws IOException {
+		Socket socket = factory.createSocket();
+		try {
+			socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), this.server.getLocalPort()), 5000);
+			((SSLSocket) socket).startHandshake();
+		} finally {
+			socket.close();
+		}
+	}
+}
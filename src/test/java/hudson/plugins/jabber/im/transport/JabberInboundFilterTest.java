@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2026 the original author or authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE
+ */
+package hudson.plugins.jabber.im.transport;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.MessageBuilder;
+import org.jivesoftware.smack.packet.StanzaBuilder;
+import org.jivesoftware.smackx.delay.packet.DelayInformation;
+import org.junit.Test;
+import org.jxmpp.jid.impl.JidCreate;
+import org.jxmpp.jid.parts.Resourcepart;
+
+public class JabberInboundFilterTest {
+
+	private final JabberInboundFilter groupChats = JabberInboundFilter
+			.forGroupChats(Resourcepart.fromOrThrowUnchecked("jenkins"), "!");
+
+	private final JabberInboundFilter privateChats = JabberInboundFilter
+			.forPrivateChats(JidCreate.bareFromOrThrowUnchecked("jenkins@example.com"));
+
+	private static MessageBuilder message(String from, String body) {
+		MessageBuilder builder = StanzaBuilder.buildMessage().from(JidCreate.fromOrThrowUnchecked(from));
+		if (body != null) {
+			builder.setBody(body);
+		}
+		return builder;
+	}
+
+	@Test
+	public void acceptsCommands() {
+		assertTrue(groupChats.accept(message("room@conference.example.com/alice", "!status").build()));
+		assertTrue(groupChats.accept(message("room@conference.example.com/alice", "jenkins: status").build()));
+		assertTrue(privateChats.accept(message("alice@example.com/home", "status").build()));
+	}
+
+	@Test
+	public void dropsGroupChatMessagesWhichAreNoCommands() {
+		assertFalse(groupChats.accept(message("room@conference.example.com/alice", "hello all").build()));
+	}
+
+	@Test
+	public void dropsDelayedMessages() {
+		Message delayed = message("room@conference.example.com/alice", "!status")
+				.addExtension(new DelayInformation(new Date())).build();
+		assertFalse(groupChats.accept(delayed));
+	}
+
+	@Test
+	public void dropsOwnMessages() {
+		assertFalse(groupChats.accept(message("room@conference.example.com/jenkins", "!status").build()));
+		assertFalse(privateChats.accept(message("jenkins@example.com/other", "status").build()));
+	}
+
+	@Test
+	public void dropsMessagesWithoutBody() {
+		assertFalse(groupChats.accept(message("room@conference.example.com/alice", null).build()));
+		assertFalse(privateChats.accept(message("alice@example.com/home", null).build()));
+	}
+
+	@Test
+	public void usesChangedCommandPrefix() {
+		JabberInboundFilter filter = JabberInboundFilter.forGroupChats(Resourcepart.fromOrThrowUnchecked("jenkins"),
+				"!");
+		filter.setCommandPrefix("#");
+		assertTrue(filter.accept(message("room@conference.example.com/alice", "#status").build()));
+		assertFalse(filter.accept(message("room@conference.example.com/alice", "!status").build()));
+	}
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright (c) 2026 the original author or authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE
+ */
+package hudson.plugins.jabber.im.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import hudson.plugins.im.DefaultIMMessageTarget;
+import hudson.plugins.im.IMException;
+
+/**
+ * Measures the outbound throughput against stand-in sessions which need a fixed time per message, like a server
+ * session with a round trip or a per-session rate limit.
+ */
+public class JabberOutboundThroughputTest {
+
+	private static final long MILLIS_PER_MESSAGE = 2;
+	private static final int TARGETS = 64;
+	private static final int MESSAGES = 400;
+
+	/**
+	 * Stand-in for one session on the server. Takes one message at a time, if serialized.
+	 */
+	private static final class StandInSession {
+		private final boolean serialized;
+
+		StandInSession(boolean serialized) {
+			this.serialized = serialized;
+		}
+
+		void send() throws InterruptedException {
+			if (this.serialized) {
+				synchronized (this) {
+					Thread.sleep(MILLIS_PER_MESSAGE);
+				}
+			} else {
+				Thread.sleep(MILLIS_PER_MESSAGE);
+			}
+		}
+	}
+
+	/**
+	 * Sends {@link #MESSAGES} messages to {@link #TARGETS} targets through the outbound queue, distributing them over
+	 * the sessions like {@link JabberIMConnection} does.
+	 *
+	 * @return the elapsed nanoseconds
+	 */
+	private long sendAll(final StandInSession[] sessions, final Map<String, List<String>> received)
+			throws IMException, InterruptedException {
+		final JabberSessionShards shards = new JabberSessionShards(sessions.length);
+		final CountDownLatch done = new CountDownLatch(MESSAGES);
+		JabberOutboundQueue queue = new JabberOutboundQueue(new JabberOutboundQueue.Sender() {
+			@Override
+			public JabberOutboundQueue.Delivery send(JabberOutboundQueue.Message message) throws IMException {
+				String key = JabberOutboundQueue.keyOf(message.getTarget());
+				try {
+					sessions[shards.shardFor(key)].send();
+				} catch (InterruptedException e) {
+					throw new IMException(e);
+				}
+				List<String> texts = received.get(key);
+				if (texts == null) {
+					texts = new ArrayList<>();
+					received.put(key, texts);
+				}
+				texts.add(message.getText());
+				done.countDown();
+				return JabberOutboundQueue.Delivery.SENT;
+			}
+		}, null, 0, 0, null);
+		try {
+			long start = System.nanoTime();
+			for (int i = 0; i < MESSAGES; i++) {
+				queue.enqueue(new DefaultIMMessageTarget("user" + (i % TARGETS) + "@example.com"), "message " + i);
+			}
+			assertTrue("not all messages sent", done.await(30, TimeUnit.SECONDS));
+			return System.nanoTime() - start;
+		} finally {
+			queue.shutdown();
+		}
+	}
+
+	private static StandInSession[] sessions(int count, boolean serialized) {
+		StandInSession[] sessions = new StandInSession[count];
+		for (int i = 0; i < count; i++) {
+			sessions[i] = new StandInSession(serialized);
+		}
+		return sessions;
+	}
+
+	@Test
+	public void lanesSendToDifferentTargetsConcurrently() throws Exception {
+		Map<String, List<String>> received = new ConcurrentHashMap<>();
+		long elapsed = sendAll(sessions(1, false), received);
+
+		long sequential = TimeUnit.MILLISECONDS.toNanos(MESSAGES * MILLIS_PER_MESSAGE);
+		assertTrue("took " + TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms, sequential sending takes "
+				+ TimeUnit.NANOSECONDS.toMillis(sequential) + " ms", elapsed * 2 < sequential);
+		assertInOrder(received);
+	}
+
+	/**
+	 * The lanes and the sessions are picked by different hashes of the target, so a lane may wait for a session which
+	 * another lane is using. Hence the speed-up of 4 sessions over one is below 4 (about 2.5 with 4 lanes).
+	 */
+	@Test
+	public void throughputScalesWithSessions() throws Exception {
+		Map<String, List<String>> received = new ConcurrentHashMap<>();
+		long oneSession = sendAll(sessions(1, true), received);
+		assertInOrder(received);
+
+		received.clear();
+		long fourSessions = sendAll(sessions(4, true), received);
+		assertInOrder(received);
+
+		assertTrue("1 session: " + TimeUnit.NANOSECONDS.toMillis(oneSession) + " ms, 4 sessions: "
+				+ TimeUnit.NANOSECONDS.toMillis(fourSessions) + " ms", fourSessions * 3 < oneSession * 2);
+	}
+
+	private static void assertInOrder(Map<String, List<String>> received) {
+		assertEquals(TARGETS, received.size());
+		for (int target = 0; target < TARGETS; target++) {
+			List<String> texts = received.get("user" + target + "@example.com");
+			for (int i = 0; i < texts.size(); i++) {
+				assertEquals("message " + (target + i * TARGETS), texts.get(i));
+			}
+		}
+	}
+}
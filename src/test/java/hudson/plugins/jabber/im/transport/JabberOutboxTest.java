@@ -0,0 +1,216 @@
+/**
+ * Copyright (c) 2026 the original author or authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE
+ */
+package hudson.plugins.jabber.im.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import hudson.plugins.im.DefaultIMMessageTarget;
+import hudson.plugins.im.GroupChatIMMessageTarget;
+import hudson.plugins.im.IMMessageTarget;
+import hudson.util.Secret;
+
+public class JabberOutboxTest {
+
+	private static final int CAPACITY = 400;
+
+	/** 30 bytes of record header, 17 bytes of target and 100 bytes of text. */
+	private static final int RECORD_SIZE = 147;
+
+	private static final IMMessageTarget ALICE = new DefaultIMMessageTarget("alice@example.com");
+	private static final IMMessageTarget ROOM = new GroupChatIMMessageTarget("room@conference.org", (Secret) null,
+			false);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File journal;
+	private JabberOutbox outbox;
+
+	private JabberOutbox open() throws IOException {
+		if (this.journal == null) {
+			this.journal = new File(this.folder.getRoot(), JabberOutbox.FILE_NAME);
+		}
+		this.outbox = new JabberOutbox(this.journal, CAPACITY);
+		return this.outbox;
+	}
+
+	private JabberOutbox restart() throws IOException {
+		this.outbox.close();
+		return open();
+	}
+
+	@After
+	public void close() throws IOException {
+		if (this.outbox != null) {
+			this.outbox.close();
+		}
+	}
+
+	private static String text(char c) {
+		StringBuilder text = new StringBuilder(100);
+		for (int i = 0; i < 100; i++) {
+			text.append(c);
+		}
+		return text.toString();
+	}
+
+	private static List<String> texts(JabberOutbox outbox) {
+		List<String> texts = new ArrayList<>();
+		for (JabberOutbox.Entry entry : outbox.getPendingEntries()) {
+			texts.add(entry.getText());
+		}
+		return texts;
+	}
+
+	@Test
+	public void recoversPendingEntriesInOrderAfterRestart() throws IOException {
+		JabberOutbox outbox = open();
+		long first = outbox.append(ALICE, "first");
+		long second = outbox.append(ROOM, "second");
+
+		outbox = restart();
+
+		List<JabberOutbox.Entry> entries = outbox.getPendingEntries();
+		assertEquals(2, entries.size());
+		assertEquals(first, entries.get(0).getId());
+		assertEquals("alice@example.com", entries.get(0).getTarget());
+		assertFalse(entries.get(0).isGroupChat());
+		assertEquals("first", entries.get(0).getText());
+		assertEquals(second, entries.get(1).getId());
+		assertEquals("room@conference.org", entries.get(1).getTarget());
+		assertTrue(entries.get(1).isGroupChat());
+		assertEquals("second", entries.get(1).getText());
+		assertTrue("ids must not be reused", outbox.append(ALICE, "third") > second);
+	}
+
+	@Test
+	public void doneEntriesAreNotRecovered() throws IOException {
+		JabberOutbox outbox = open();
+		long first = outbox.append(ALICE, "first");
+		outbox.append(ALICE, "second");
+		outbox.markDone(first);
+
+		outbox = restart();
+
+		assertEquals(1, outbox.getPendingCount());
+		assertEquals("second", outbox.getPendingEntries().get(0).getText());
+	}
+
+	@Test
+	public void startsOverOnceAllEntriesAreDone() throws IOException {
+		JabberOutbox outbox = open();
+		long first = outbox.append(ALICE, text('a'));
+		long second = outbox.append(ALICE, text('b'));
+		outbox.markDone(first);
+		outbox.markDone(second);
+		assertEquals(0, outbox.getPendingCount());
+
+		// wouldn't fit behind the first two
+		long third = outbox.append(ALICE, text('c'));
+		long fourth = outbox.append(ALICE, text('d'));
+		assertTrue(third > second);
+		assertTrue(fourth > third);
+
+		outbox = restart();
+
+		assertEquals(2, outbox.getPendingCount());
+		assertEquals(text('c'), outbox.getPendingEntries().get(0).getText());
+		assertEquals(text('d'), outbox.getPendingEntries().get(1).getText());
+	}
+
+	@Test
+	public void ignoresRecordWhichWasNotCommitted() throws IOException {
+		JabberOutbox outbox = open();
+		outbox.append(ALICE, text('a'));
+		outbox.append(ALICE, text('b'));
+		outbox.close();
+
+		// crash before the length of the second record was written
+		RandomAccessFile file = new RandomAccessFile(this.journal, "rw");
+		try {
+			file.seek(8 + RECORD_SIZE);
+			file.writeInt(0);
+		} finally {
+			file.close();
+		}
+
+		outbox = open();
+		assertEquals(1, outbox.getPendingCount());
+		assertEquals(text('a'), outbox.getPendingEntries().get(0).getText());
+
+		outbox.append(ALICE, text('c'));
+		outbox = restart();
+		List<String> texts = texts(outbox);
+		assertEquals(2, texts.size());
+		assertEquals(text('a'), texts.get(0));
+		assertEquals(text('c'), texts.get(1));
+	}
+
+	@Test
+	public void rejectsEntriesWhenFull() throws IOException {
+		JabberOutbox outbox = open();
+		assertTrue(outbox.append(ALICE, text('a')) != -1);
+		assertTrue(outbox.append(ALICE, text('b')) != -1);
+
+		assertEquals(-1, outbox.append(ALICE, text('c')));
+
+		outbox = restart();
+		List<String> texts = texts(outbox);
+		assertEquals(2, texts.size());
+		assertEquals(text('a'), texts.get(0));
+		assertEquals(text('b'), texts.get(1));
+	}
+
+	@Test
+	public void compactsDoneEntriesAway() throws IOException {
+		JabberOutbox outbox = open();
+		long first = outbox.append(ALICE, text('a'));
+		outbox.append(ALICE, text('b'));
+		outbox.markDone(first);
+
+		// only fits once the first entry has been compacted away
+		assertTrue(outbox.append(ALICE, text('c')) != -1);
+		assertEquals(1, this.folder.getRoot().list().length);
+
+		List<String> texts = texts(outbox);
+		assertEquals(2, texts.size());
+		assertEquals(text('b'), texts.get(0));
+		assertEquals(text('c'), texts.get(1));
+
+		outbox = restart();
+		assertEquals(texts, texts(outbox));
+	}
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2026 the original author or authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE
+ */
+package hudson.plugins.jabber.im.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import hudson.plugins.jabber.im.transport.JabberReconnectBackoff.CircuitState;
+
+public class JabberReconnectBackoffTest {
+
+	private static final long BASE_DELAY_MILLIS = 100;
+	private static final long MAX_DELAY_MILLIS = 1000;
+	private static final int THRESHOLD = 5;
+
+	private final JabberReconnectBackoff backoff = new JabberReconnectBackoff(BASE_DELAY_MILLIS, MAX_DELAY_MILLIS,
+			THRESHOLD);
+
+	private void recordFailures(int times) {
+		for (int i = 0; i < times; i++) {
+			this.backoff.onFailure();
+		}
+	}
+
+	private void assertDelaysUpTo(long bound) {
+		for (int i = 0; i < 100; i++) {
+			long delay = this.backoff.nextDelayMillis();
+			assertTrue("delay " + delay + " exceeds " + bound, delay >= 0 && delay <= bound);
+		}
+	}
+
+	@Test
+	public void noDelayWithoutFailures() {
+		for (int i = 0; i < 100; i++) {
+			assertEquals(0, this.backoff.nextDelayMillis());
+		}
+	}
+
+	@Test
+	public void delayBoundGrowsExponentiallyUpToTheMaximum() {
+		recordFailures(1);
+		assertDelaysUpTo(BASE_DELAY_MILLIS);
+		recordFailures(2);
+		assertDelaysUpTo(4 * BASE_DELAY_MILLIS);
+		recordFailures(1);
+		assertDelaysUpTo(MAX_DELAY_MILLIS);
+	}
+
+	@Test
+	public void circuitOpensAtTheThreshold() {
+		recordFailures(THRESHOLD - 1);
+		assertEquals(CircuitState.CLOSED, this.backoff.getCircuitState());
+		assertTrue(this.backoff.nextDelayMillis() >= 0);
+
+		recordFailures(1);
+		assertEquals(CircuitState.OPEN, this.backoff.getCircuitState());
+		assertEquals(-1, this.backoff.nextDelayMillis());
+	}
+
+	@Test
+	public void successfulTrialClosesTheCircuit() throws InterruptedException {
+		recordFailures(THRESHOLD);
+		Thread.sleep(MAX_DELAY_MILLIS + 50);
+
+		assertEquals(0, this.backoff.nextDelayMillis());
+		assertEquals(CircuitState.HALF_OPEN, this.backoff.getCircuitState());
+
+		this.backoff.onSuccess();
+		assertEquals(CircuitState.CLOSED, this.backoff.getCircuitState());
+		assertEquals(0, this.backoff.getFailures());
+		assertEquals(0, this.backoff.nextDelayMillis());
+	}
+
+	@Test
+	public void failedTrialReopensTheCircuit() throws InterruptedException {
+		recordFailures(THRESHOLD);
+		Thread.sleep(MAX_DELAY_MILLIS + 50);
+		assertEquals(0, this.backoff.nextDelayMillis());
+
+		this.backoff.onFailure();
+		assertEquals(CircuitState.OPEN, this.backoff.getCircuitState());
+		assertEquals(-1, this.backoff.nextDelayMillis());
+	}
+
+	@Test
+	public void resetForgetsAllFailures() {
+		recordFailures(THRESHOLD);
+		this.backoff.reset();
+
+		assertEquals(CircuitState.CLOSED, this.backoff.getCircuitState());
+		assertEquals(0, this.backoff.getFailures());
+		assertEquals(0, this.backoff.nextDelayMillis());
+	}
+}
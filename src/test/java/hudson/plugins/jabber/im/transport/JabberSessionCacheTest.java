@@ -0,0 +1,245 @@
+/**
+ * Copyright (c) 2026 the original author or authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE
+ */
+package hudson.plugins.jabber.im.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import hudson.plugins.im.IMChat;
+import hudson.plugins.im.IMMessageListener;
+
+public class JabberSessionCacheTest {
+
+	private final List<String> evicted = new ArrayList<>();
+
+	private JabberSessionCache<String, String> newCache(String name, int maxSize, long idleMillis) {
+		return new JabberSessionCache<>(name, maxSize, idleMillis,
+				new JabberSessionCache.EvictionListener<String, String>() {
+					@Override
+					public void evicted(String key, String value) {
+						evicted.add(key);
+					}
+				});
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedEntryWhenFull() {
+		JabberSessionCache<String, String> cache = newCache("test.lru", 2, 0);
+		cache.put("a", "A");
+		cache.put("b", "B");
+		cache.get("a");
+		cache.put("c", "C");
+
+		assertEquals(2, cache.size());
+		assertNull(cache.get("b"));
+		assertEquals("A", cache.get("a"));
+		assertEquals("C", cache.get("c"));
+		assertEquals(1, evicted.size());
+		assertEquals("b", evicted.get(0));
+	}
+
+	@Test
+	public void neverEvictsPinnedEntries() throws InterruptedException {
+		JabberSessionCache<String, String> cache = newCache("test.pinned", 1, 5);
+		cache.setPinned(Arrays.asList("configured"));
+		cache.put("configured", "C");
+		cache.put("a", "A");
+		cache.put("b", "B");
+		Thread.sleep(20);
+		cache.cleanUp();
+
+		assertEquals(Arrays.asList("a", "b"), evicted);
+		assertEquals("C", cache.get("configured"));
+	}
+
+	@Test
+	public void computeIfAbsentCreatesOnlyOnce() throws InterruptedException {
+		final JabberSessionCache<String, String> cache = newCache("test.compute", 10, 0);
+		final AtomicInteger created = new AtomicInteger();
+		final JabberSessionCache.Factory<String, String> factory = new JabberSessionCache.Factory<String, String>() {
+			@Override
+			public String create(String key) {
+				created.incrementAndGet();
+				return key.toUpperCase(Locale.ENGLISH);
+			}
+		};
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 1000; j++) {
+						assertEquals("A", cache.computeIfAbsent("a", factory));
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(1, created.get());
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void evictsIdleEntries() throws InterruptedException {
+		JabberSessionCache<String, String> cache = newCache("test.idle", 10, 5);
+		cache.put("a", "A");
+		Thread.sleep(20);
+
+		assertFalse(cache.containsKey("a"));
+		cache.cleanUp();
+		assertEquals(0, cache.size());
+		assertEquals(1, evicted.size());
+	}
+
+	@Test
+	public void countsHitsMissesAndEvictions() {
+		JabberSessionCache<String, String> cache = newCache("test.counters", 1, 0);
+		cache.put("a", "A");
+		cache.get("a");
+		cache.get("b");
+		cache.put("b", "B");
+
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.getEvictions());
+	}
+
+	/**
+	 * Simulates many distinct chat partners: evicted sessions must detach their listener from the chat, so neither
+	 * stays reachable.
+	 */
+	@Test
+	public void evictionReleasesChatSessions() {
+		final int partners = 1000;
+		final int maxSize = 100;
+		JabberCommandExecutor executor = new JabberCommandExecutor(1, 1);
+		try {
+			JabberBotDispatcher dispatcher = new JabberBotDispatcher("jenkins", "!", executor,
+					new JabberBotDispatcher.BotFactory() {
+						@Override
+						public IMMessageListener createBot(IMChat chat, String commandPrefix) {
+							throw new AssertionError("no commands are sent");
+						}
+					});
+			JabberSessionCache<String, JabberChatSession<String>> cache = new JabberSessionCache<>("test.release",
+					maxSize, 0, new JabberSessionCache.EvictionListener<String, JabberChatSession<String>>() {
+						@Override
+						public void evicted(String key, JabberChatSession<String> session) {
+							session.release();
+						}
+					});
+			long closedBefore = JabberMetrics.counter("conversations.closed").get();
+			List<ListenerTrackingChat> chats = new ArrayList<>(partners);
+			for (int i = 0; i < partners; i++) {
+				String partner = "user" + i + "@example.com";
+				ListenerTrackingChat chat = new ListenerTrackingChat();
+				chats.add(chat);
+				JabberChatSession<String> session = new JabberChatSession<>(partner, chat);
+				session.attach(dispatcher);
+				cache.put(partner, session);
+			}
+
+			assertEquals(maxSize, cache.size());
+			assertEquals(partners - maxSize, JabberMetrics.counter("conversations.closed").get() - closedBefore);
+			for (int i = 0; i < partners; i++) {
+				JabberChatSession<String> session = cache.get("user" + i + "@example.com");
+				if (i < partners - maxSize) {
+					assertNull(session);
+					assertTrue("listener of evicted session " + i + " still attached",
+							chats.get(i).listeners.isEmpty());
+				} else {
+					assertEquals(1, chats.get(i).listeners.size());
+					assertSame(session.getListener(), chats.get(i).listeners.get(0));
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void removeAndClearDontNotify() {
+		JabberSessionCache<String, String> cache = newCache("test.remove", 10, 0);
+		cache.put("a", "A");
+		cache.put("b", "B");
+
+		assertEquals("A", cache.remove("a"));
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertTrue(evicted.isEmpty());
+	}
+
+	private static final class ListenerTrackingChat implements IMChat {
+		final List<IMMessageListener> listeners = new ArrayList<>();
+
+		@Override
+		public void sendMessage(String message) {
+		}
+
+		@Override
+		public String getNickName(String sender) {
+			return sender;
+		}
+
+		@Override
+		public String getIMId(String senderId) {
+			return senderId;
+		}
+
+		@Override
+		public void addMessageListener(IMMessageListener listener) {
+			this.listeners.add(listener);
+		}
+
+		@Override
+		public void removeMessageListener(IMMessageListener listener) {
+			this.listeners.remove(listener);
+		}
+
+		@Override
+		public boolean isMultiUserChat() {
+			return false;
+		}
+
+		@Override
+		public boolean isCommandsAccepted() {
+			return true;
+		}
+	}
+}
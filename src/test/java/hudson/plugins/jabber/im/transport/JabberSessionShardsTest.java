@@ -0,0 +1,63 @@
+/**
+ * Copyright (c) 2026 the original author or authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE
+ */
+package hudson.plugins.jabber.im.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class JabberSessionShardsTest {
+
+	@Test
+	public void sameTargetAlwaysUsesSameShard() {
+		JabberSessionShards shards = new JabberSessionShards(4);
+		for (int i = 0; i < 100; i++) {
+			String target = "user" + i + "@example.com";
+			assertEquals(shards.shardFor(target), new JabberSessionShards(4).shardFor(target));
+		}
+	}
+
+	@Test
+	public void spreadsTargetsOverAllShards() {
+		JabberSessionShards shards = new JabberSessionShards(4);
+		int[] counts = new int[4];
+		for (int i = 0; i < 4000; i++) {
+			counts[shards.shardFor("user" + i + "@example.com")]++;
+		}
+		for (int count : counts) {
+			assertTrue("uneven distribution: " + count, count > 500 && count < 1500);
+		}
+	}
+
+	@Test
+	public void addingShardOnlyMovesTargetsToTheNewShard() {
+		JabberSessionShards three = new JabberSessionShards(3);
+		JabberSessionShards four = new JabberSessionShards(4);
+		for (int i = 0; i < 1000; i++) {
+			String target = "user" + i + "@example.com";
+			int after = four.shardFor(target);
+			assertTrue(after == 3 || after == three.shardFor(target));
+		}
+	}
+}
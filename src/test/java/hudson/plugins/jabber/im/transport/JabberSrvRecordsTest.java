@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) 2026 the original author or authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE
+ */
+package hudson.plugins.jabber.im.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class JabberSrvRecordsTest {
+
+	@Test
+	public void parsesRecord() {
+		JabberSrvRecords.Endpoint endpoint = JabberSrvRecords.parse("10 5 5223 xmpp.example.com.");
+		assertEquals(10, endpoint.getPriority());
+		assertEquals(5, endpoint.getWeight());
+		assertEquals("xmpp.example.com", endpoint.getHost());
+		assertEquals(5223, endpoint.getPort());
+	}
+
+	@Test
+	public void ignoresUnavailableServiceAndMalformedRecords() {
+		assertNull(JabberSrvRecords.parse("0 0 0 ."));
+		assertNull(JabberSrvRecords.parse("10 5 xmpp.example.com."));
+		assertNull(JabberSrvRecords.parse("a b c xmpp.example.com."));
+	}
+
+	@Test
+	public void ordersByPriority() {
+		List<JabberSrvRecords.Endpoint> ordered = JabberSrvRecords.order(Arrays.asList(
+				new JabberSrvRecords.Endpoint(20, 0, "c", 5223),
+				new JabberSrvRecords.Endpoint(5, 0, "a", 5223),
+				new JabberSrvRecords.Endpoint(10, 0, "b", 5223)), new Random(1));
+		assertEquals("a", ordered.get(0).getHost());
+		assertEquals("b", ordered.get(1).getHost());
+		assertEquals("c", ordered.get(2).getHost());
+	}
+
+	@Test
+	public void keepsAllEndpointsOfSamePriority() {
+		List<JabberSrvRecords.Endpoint> ordered = JabberSrvRecords.order(Arrays.asList(
+				new JabberSrvRecords.Endpoint(10, 60, "a", 5223),
+				new JabberSrvRecords.Endpoint(10, 40, "b", 5223),
+				new JabberSrvRecords.Endpoint(10, 0, "c", 5223)), new Random(1));
+		Set<String> hosts = new HashSet<>();
+		for (JabberSrvRecords.Endpoint endpoint : ordered) {
+			hosts.add(endpoint.getHost());
+		}
+		assertEquals(new HashSet<>(Arrays.asList("a", "b", "c")), hosts);
+	}
+}
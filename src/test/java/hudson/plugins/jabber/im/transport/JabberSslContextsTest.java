@@ -0,0 +1,134 @@
+/**
+ * Copyright (c) 2026 the original author or authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE
+ */
+package hudson.plugins.jabber.im.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.KeyStore;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Connects to a local TLS server, standing in for the XMPP server or a TLS terminator, to check that reconnects with
+ * the shared context resume the TLS session instead of doing a full handshake.
+ */
+public class JabberSslContextsTest {
+
+	private static final String KEYSTORE = "wrong-host.p12";
+	private static final char[] PASSWORD = "changeit".toCharArray();
+
+	private SSLServerSocket server;
+
+	@Before
+	public void startServer() throws Exception {
+		KeyStore keyStore = KeyStore.getInstance("PKCS12");
+		InputStream in = getClass().getResourceAsStream(KEYSTORE);
+		try {
+			keyStore.load(in, PASSWORD);
+		} finally {
+			in.close();
+		}
+		KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		kmf.init(keyStore, PASSWORD);
+		SSLContext serverContext = SSLContext.getInstance("TLS");
+		serverContext.init(kmf.getKeyManagers(), null, null);
+
+		this.server = (SSLServerSocket) serverContext.getServerSocketFactory().createServerSocket(0, 10,
+				InetAddress.getLoopbackAddress());
+		Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (!server.isClosed()) {
+					try {
+						Socket socket = server.accept();
+						try {
+							// with TLS 1.3 the session ticket follows the handshake, so send something after it
+							socket.getOutputStream().write(1);
+							socket.getOutputStream().flush();
+							socket.getInputStream().read();
+						} catch (IOException e) {
+							// the client went away
+						} finally {
+							socket.close();
+						}
+					} catch (IOException e) {
+						return;
+					}
+				}
+			}
+		}, "tls-resumption-test-server");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	@After
+	public void stopServer() throws IOException {
+		this.server.close();
+		JabberSslContexts.reset();
+	}
+
+	@Test
+	public void reconnectResumesTlsSession() throws Exception {
+		SSLSession first = connect(JabberSslContexts.get(true));
+		SSLSession second = connect(JabberSslContexts.get(true));
+
+		// a resumed session keeps the creation time of the full handshake
+		assertEquals(first.getCreationTime(), second.getCreationTime());
+	}
+
+	@Test
+	public void resetStartsWithFullHandshake() throws Exception {
+		SSLSession first = connect(JabberSslContexts.get(true));
+		Thread.sleep(10);
+		JabberSslContexts.reset();
+		SSLSession second = connect(JabberSslContexts.get(true));
+
+		assertTrue(second.getCreationTime() > first.getCreationTime());
+	}
+
+	private SSLSession connect(SSLContext context) throws IOException {
+		SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket(InetAddress.getLoopbackAddress(),
+				this.server.getLocalPort());
+		try {
+			socket.startHandshake();
+			socket.getInputStream().read();
+			socket.getOutputStream().write(1);
+			return socket.getSession();
+		} finally {
+			socket.close();
+		}
+	}
+}